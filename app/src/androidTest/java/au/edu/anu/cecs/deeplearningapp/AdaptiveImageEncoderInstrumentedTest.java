@@ -0,0 +1,187 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.gson.JsonParser;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that fitting images to the byte budgets does not change which landmark
+ * is recognized, and reports how many bytes and how much time it saves.
+ *
+ * The callable function is a local stand-in that decodes the uploaded image and
+ * answers with the sample it is closest to by perceptual hash, so a payload
+ * degraded too far would be recognized as another landmark.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AdaptiveImageEncoderInstrumentedTest {
+    private static final int SAMPLES = 12;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final long[] sampleHashes = new long[SAMPLES];
+
+    /**
+     * A photo-like sample: large blocks of colour that differ between seeds, over
+     * fine noise that makes it expensive to compress.
+     */
+    private static Bitmap sample(int seed, int width, int height) {
+        Random random = new Random(seed);
+        int[] blocks = new int[36];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = random.nextInt(0xFFFFFF);
+        }
+        int[] row = new int[width];
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int block = blocks[(y * 6 / height) * 6 + x * 6 / width];
+                int noise = random.nextInt(48) - 24;
+                int r = clamp(((block >> 16) & 0xFF) + noise);
+                int g = clamp(((block >> 8) & 0xFF) + noise);
+                int b = clamp((block & 0xFF) + noise);
+                row[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    private static int clamp(int channel) {
+        return Math.max(0, Math.min(255, channel));
+    }
+
+    /**
+     * Answers with the sample whose hash is nearest to the uploaded image's.
+     */
+    private class NearestSampleClient implements VisionClient {
+        @Override
+        public void annotate(String requestJson, Callback callback) {
+            String content = JsonParser.parseString(requestJson).getAsJsonObject()
+                    .getAsJsonObject("image").get("content").getAsString();
+            byte[] image = Base64.decode(content, Base64.DEFAULT);
+            Bitmap bitmap = BitmapFactory.decodeByteArray(image, 0, image.length);
+            long hash = ImageHash.dHash(bitmap);
+            bitmap.recycle();
+            int nearest = 0;
+            for (int i = 1; i < SAMPLES; i++) {
+                if (Long.bitCount(hash ^ sampleHashes[i])
+                        < Long.bitCount(hash ^ sampleHashes[nearest])) {
+                    nearest = i;
+                }
+            }
+            callback.onSuccess(response("Landmark " + nearest));
+        }
+    }
+
+    private static Object response(String description) {
+        Map<String, Object> landmark = new HashMap<>();
+        landmark.put("mid", "/m/0");
+        landmark.put("description", description);
+        landmark.put("score", 0.9);
+        return Collections.singletonList(Collections.singletonMap("landmarkAnnotations",
+                Collections.singletonList(landmark)));
+    }
+
+    /**
+     * Recognize through a recognizer whose cache never matches, returning the top
+     * landmark and adding the request size and latency to totals.
+     */
+    private static String recognize(LandmarkRecognizer recognizer, final Bitmap image,
+                                    final AdaptiveImageEncoder encoder, long[] totals)
+            throws InterruptedException {
+        final String[] top = new String[1];
+        final int[] bytes = new int[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        recognizer.call(System.nanoTime(), () -> {
+            String request = encoder.encode(image, VisionRequestEncoder.DEFAULT_MAX_RESULTS);
+            bytes[0] = request.length();
+            return request;
+        }, new LandmarkRecognizer.Callback() {
+            @Override
+            public void onResult(Object data, boolean cached) {
+                top[0] = VisionResponseParser.describe(VisionResponseParser.parse(data, 1));
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                top[0] = "failure: " + e;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        totals[0] += bytes[0];
+        totals[1] += System.nanoTime() - start;
+        return top[0];
+    }
+
+    @Test
+    public void topLandmarkIsUnchangedWithinTheBudgets() throws Exception {
+        Bitmap[] images = new Bitmap[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            Bitmap photo = sample(i, 1600, 1200);
+            images[i] = LandmarkActivity.scaleBitmapDown(photo,
+                    VisionRequestEncoder.DEFAULT_MAX_DIMENSION);
+            photo.recycle();
+            sampleHashes[i] = ImageHash.dHash(images[i]);
+        }
+        LandmarkRecognizer recognizer = new LandmarkRecognizer(new NearestSampleClient(),
+                new LandmarkCache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES,
+                        LandmarkCache.DEFAULT_TTL_MS, -1, System::currentTimeMillis));
+
+        // What was sent before: the full size at quality 100
+        AdaptiveImageEncoder original = new AdaptiveImageEncoder(null);
+        original.setBudget(AdaptiveImageEncoder.Network.UNMETERED,
+                AdaptiveImageEncoder.Budget.fixed(VisionRequestEncoder.DEFAULT_MAX_DIMENSION,
+                        VisionRequestEncoder.DEFAULT_JPEG_QUALITY));
+        AdaptiveImageEncoder unmetered = new AdaptiveImageEncoder(null);
+        AdaptiveImageEncoder metered = new AdaptiveImageEncoder(null);
+        metered.setBudget(AdaptiveImageEncoder.Network.UNMETERED,
+                AdaptiveImageEncoder.METERED_BUDGET);
+
+        long[] originalTotals = new long[2];
+        long[] unmeteredTotals = new long[2];
+        long[] meteredTotals = new long[2];
+        for (int i = 0; i < SAMPLES; i++) {
+            String expected = recognize(recognizer, images[i], original, originalTotals);
+            assertTrue(expected, expected.contains("Landmark " + i));
+            assertEquals(expected, recognize(recognizer, images[i], unmetered, unmeteredTotals));
+            assertTrue(unmetered.getImageLength()
+                    <= AdaptiveImageEncoder.UNMETERED_BUDGET.maxBytes);
+            assertEquals(expected, recognize(recognizer, images[i], metered, meteredTotals));
+            assertTrue(metered.getImageLength() <= AdaptiveImageEncoder.METERED_BUDGET.maxBytes);
+            images[i].recycle();
+        }
+
+        assertTrue(unmeteredTotals[0] < originalTotals[0]);
+        assertTrue(meteredTotals[0] < unmeteredTotals[0]);
+        String[] names = {"quality 100", "unmetered budget", "metered budget"};
+        long[][] totals = {originalTotals, unmeteredTotals, meteredTotals};
+        for (int i = 0; i < names.length; i++) {
+            MicroBenchmark.report(String.format(Locale.ROOT,
+                    "%s: %d KB per request, %.1f ms end to end", names[i],
+                    totals[i][0] / SAMPLES / 1024, totals[i][1] / 1e6 / SAMPLES));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Recognizes album images the way LandmarkActivity does, through a router whose
+ * cloud calls are packed by a BatchRecognizer, with real bitmaps so that one
+ * recycled too early fails the classifier or the encoder.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlbumRecognitionTest {
+    private static final int MAX_DIMENSION = 640;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Answers every image of a batch with the same landmark.
+     */
+    private static class FakeClient implements VisionClient {
+        final List<String> requests = new ArrayList<>();
+
+        @Override
+        public void annotate(String requestJson, Callback callback) {
+            requests.add(requestJson);
+            Object single = ((List<?>) VisionJsonBenchmark.response(1)).get(0);
+            List<Object> responses = new ArrayList<>();
+            for (int i = requestJson.indexOf("{\"image\":"); i >= 0;
+                 i = requestJson.indexOf("{\"image\":", i + 1)) {
+                responses.add(single);
+            }
+            callback.onSuccess(responses);
+        }
+    }
+
+    @Test
+    public void recognizesImagesDecodedAtTheUploadSize() throws Exception {
+        FakeClient client = new FakeClient();
+        BatchRecognizer batchRecognizer = new BatchRecognizer(client);
+        // A maximum distance below zero never answers from the cache
+        LandmarkRecognizer recognizer = new LandmarkRecognizer(client,
+                new LandmarkCache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES,
+                        LandmarkCache.DEFAULT_TTL_MS, -1, System::currentTimeMillis));
+        LandmarkRouter router = new LandmarkRouter(recognizer.withClient(batchRecognizer),
+                LandmarkRouter.Mode.HYBRID, LandmarkRouter.DEFAULT_THRESHOLD);
+        final AtomicInteger recycledWhenClassified = new AtomicInteger();
+        router.setClassifier(image -> {
+            if (image.isRecycled()) {
+                recycledWhenClassified.incrementAndGet();
+            }
+            // Not confident, so the image goes to the cloud
+            return new LandmarkClassifier.Prediction("Uluru", 0.1f);
+        });
+        AdaptiveImageEncoder payloadEncoder = new AdaptiveImageEncoder(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+
+        // Decoded exactly at the upload size, and larger
+        Bitmap[] decoded = {
+                LandmarkPreprocessBenchmark.photo(MAX_DIMENSION, MAX_DIMENSION * 3 / 4),
+                LandmarkPreprocessBenchmark.photo(MAX_DIMENSION * 2, MAX_DIMENSION * 3 / 2)
+        };
+        final CountDownLatch answered = new CountDownLatch(decoded.length);
+        final List<Exception> failures = Collections.synchronizedList(new ArrayList<>());
+        final List<LandmarkRouter.Route> routes =
+                Collections.synchronizedList(new ArrayList<>());
+        for (Bitmap bitmap : decoded) {
+            LandmarkActivity.recognizeDecoded(router, bitmap, MAX_DIMENSION, payloadEncoder,
+                    new LandmarkRouter.Callback() {
+                        @Override
+                        public void onResult(Object data, LandmarkRouter.Route route) {
+                            routes.add(route);
+                            answered.countDown();
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            failures.add(e);
+                            answered.countDown();
+                        }
+                    });
+        }
+        batchRecognizer.flush();
+
+        assertTrue(answered.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(0, recycledWhenClassified.get());
+        assertEquals(Collections.nCopies(decoded.length, LandmarkRouter.Route.CLOUD), routes);
+        assertEquals(1, client.requests.size());
+        for (Bitmap bitmap : decoded) {
+            assertTrue(bitmap.isRecycled());
+        }
+        batchRecognizer.close();
+    }
+}
@@ -0,0 +1,156 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks recognizing an album one image per call against BatchRecognizer,
+ * with a local stand-in for the callable functions.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BatchRecognitionBenchmark {
+    private static final int IMAGES = 48;
+    private static final int JPEG_BYTES = 100 * 1024;
+
+    /**
+     * Answers after a fixed round trip plus the upload time of the request, with
+     * one landmark per image in it.
+     */
+    private static class LatencyClient implements VisionClient {
+        static final long ROUND_TRIP_MS = 150;
+        static final long BYTES_PER_MS = 1024;
+
+        final ScheduledExecutorService network = Executors.newScheduledThreadPool(8);
+
+        @Override
+        public void annotate(String requestJson, final Callback callback) {
+            final int images = count(requestJson, "{\"image\":");
+            long delay = ROUND_TRIP_MS + requestJson.length() / BYTES_PER_MS;
+            network.schedule(() -> {
+                Object single = ((List<?>) VisionJsonBenchmark.response(1)).get(0);
+                if (!requestJson.startsWith("{\"requests\"")) {
+                    callback.onSuccess(Collections.singletonList(single));
+                    return;
+                }
+                List<Object> responses = new ArrayList<>(images);
+                for (int i = 0; i < images; i++) {
+                    responses.add(single);
+                }
+                callback.onSuccess(responses);
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private static int count(String text, String pattern) {
+            int count = 0;
+            for (int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private final LatencyClient client = new LatencyClient();
+    private final byte[][] jpegs = new byte[IMAGES][JPEG_BYTES];
+
+    public BatchRecognitionBenchmark() {
+        Random random = new Random(1);
+        for (byte[] jpeg : jpegs) {
+            random.nextBytes(jpeg);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        client.network.shutdownNow();
+    }
+
+    private String request(int index) {
+        VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+        try {
+            return encoder.encode(jpegs[index], 0, JPEG_BYTES,
+                    VisionRequestEncoder.DEFAULT_MAX_RESULTS);
+        } finally {
+            encoder.recycle();
+        }
+    }
+
+    @Test
+    public void batchedVersusOneAtATime() throws Exception {
+        // One call per image, waiting for each answer, as a single-image screen would
+        long start = System.nanoTime();
+        for (int i = 0; i < IMAGES; i++) {
+            final CountDownLatch answered = new CountDownLatch(1);
+            client.annotate(request(i), new VisionClient.Callback() {
+                @Override
+                public void onSuccess(Object data) {
+                    answered.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    answered.countDown();
+                }
+            });
+            assertTrue(answered.await(10, TimeUnit.SECONDS));
+        }
+        long sequentialNs = System.nanoTime() - start;
+
+        BatchRecognizer recognizer = new BatchRecognizer(client);
+        final CountDownLatch complete = new CountDownLatch(1);
+        final int[] failures = new int[1];
+        start = System.nanoTime();
+        recognizer.recognize(new BatchRecognizer.Source() {
+            @Override
+            public int size() {
+                return IMAGES;
+            }
+
+            @Override
+            public String request(int index) {
+                return BatchRecognitionBenchmark.this.request(index);
+            }
+        }, new BatchRecognizer.Listener() {
+            @Override
+            public void onResult(int index, Object response) {
+            }
+
+            @Override
+            public void onFailure(int index, Exception e) {
+                failures[0]++;
+            }
+
+            @Override
+            public void onProgress(int done, int total) {
+            }
+
+            @Override
+            public void onComplete(int succeeded, int failed, long elapsedMs) {
+                complete.countDown();
+            }
+        });
+        assertTrue(complete.await(60, TimeUnit.SECONDS));
+        long batchedNs = System.nanoTime() - start;
+        recognizer.close();
+        assertEquals(0, failures[0]);
+
+        MicroBenchmark.report(String.format(Locale.ROOT,
+                "album of %d x %d KB: one at a time %.1f images/s, batched %.1f images/s",
+                IMAGES, JPEG_BYTES / 1024, IMAGES / (sequentialNs / 1e9),
+                IMAGES / (batchedNs / 1e9)));
+    }
+}
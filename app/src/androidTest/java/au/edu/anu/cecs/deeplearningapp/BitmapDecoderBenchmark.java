@@ -0,0 +1,79 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares decoding a large camera JPEG at full resolution, as LandmarkActivity
+ * used to, with BitmapDecoder's downsample-on-decode.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapDecoderBenchmark {
+    private static final int[][] RESOLUTIONS = {{4000, 3000}, {8000, 6000}};
+
+    private static File writeJpeg(Context context, int width, int height) throws Exception {
+        File file = new File(context.getCacheDir(), "decode_" + width + "x" + height + ".jpg");
+        if (!file.exists()) {
+            // Drawn in tiles so that building the test image does not need a huge bitmap
+            Bitmap tile = LandmarkPreprocessBenchmark.photo(width / 4, height / 4);
+            Bitmap scaled = Bitmap.createScaledBitmap(tile, width, height, true);
+            tile.recycle();
+            try (OutputStream output = new FileOutputStream(file)) {
+                scaled.compress(Bitmap.CompressFormat.JPEG, 95, output);
+            }
+            scaled.recycle();
+        }
+        return file;
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void fullResolutionVersusDownsampledDecode() throws Exception {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        final ContentResolver resolver = context.getContentResolver();
+
+        for (int[] resolution : RESOLUTIONS) {
+            final Uri uri = Uri.fromFile(writeJpeg(context, resolution[0], resolution[1]));
+            String size = resolution[0] + "x" + resolution[1];
+
+            Bitmap full = MediaStore.Images.Media.getBitmap(resolver, uri);
+            long fullBytes = full.getAllocationByteCount();
+            full.recycle();
+            Bitmap decoded = BitmapDecoder.decode(resolver, uri, 640, false);
+            long decodedBytes = decoded.getAllocationByteCount();
+            assertTrue(Math.max(decoded.getWidth(), decoded.getHeight()) >= 640);
+            decoded.recycle();
+            Bitmap lowMemory = BitmapDecoder.decode(resolver, uri, 640, true);
+            long lowMemoryBytes = lowMemory.getAllocationByteCount();
+            lowMemory.recycle();
+
+            MicroBenchmark.report(String.format(Locale.ROOT,
+                    "Decoded bitmap %s: full %d KB, downsampled %d KB, low-memory %d KB",
+                    size, fullBytes / 1024, decodedBytes / 1024, lowMemoryBytes / 1024));
+
+            MicroBenchmark.measure("getBitmap+scaleBitmapDown/" + size, 2, 10, () -> {
+                Bitmap bitmap = MediaStore.Images.Media.getBitmap(resolver, uri);
+                LandmarkActivity.scaleBitmapDown(bitmap, 640).recycle();
+                bitmap.recycle();
+            });
+            MicroBenchmark.measure("BitmapDecoder.decode/" + size, 2, 10,
+                    () -> BitmapDecoder.decode(resolver, uri, 640, false).recycle());
+        }
+    }
+}
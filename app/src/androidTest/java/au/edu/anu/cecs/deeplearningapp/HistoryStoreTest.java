@@ -0,0 +1,62 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the history store keeps entries in order and pages through them
+ * without gaps. Each run logs under a kind of its own, so earlier runs and the
+ * app's own history don't interfere.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HistoryStoreTest {
+    private static List<HistoryStore.Entry> page(HistoryStore store, String kind, long beforeId,
+                                                 int limit) throws InterruptedException {
+        final List<HistoryStore.Entry> result = new ArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        store.loadPage(kind, beforeId, limit, entries -> {
+            result.addAll(entries);
+            done.countDown();
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        return result;
+    }
+
+    @Test
+    public void pagesBackThroughTheHistory() throws Exception {
+        HistoryStore store = HistoryStore.getInstance(
+                InstrumentationRegistry.getInstrumentation().getTargetContext());
+        String kind = "test-" + System.nanoTime();
+        int count = 2 * HistoryStore.PAGE_SIZE + 7;
+        for (int i = 0; i < count; i++) {
+            store.append(kind, "result " + i);
+        }
+        store.flush();
+
+        // Newest page first, each page oldest first
+        List<String> texts = new ArrayList<>();
+        long beforeId = Long.MAX_VALUE;
+        List<HistoryStore.Entry> entries;
+        while (!(entries = page(store, kind, beforeId, HistoryStore.PAGE_SIZE)).isEmpty()) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                texts.add(0, entries.get(i).text);
+            }
+            beforeId = entries.get(0).id;
+        }
+
+        assertEquals(count, texts.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("result " + i, texts.get(i));
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+import android.util.Base64;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Benchmarks the image preprocessing done by LandmarkActivity before each upload:
+ * scaling, JPEG compression and Base64 encoding.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LandmarkPreprocessBenchmark {
+    private static final int[][] RESOLUTIONS = {{1280, 960}, {2560, 1920}, {4000, 3000}};
+
+    /**
+     * A bitmap with smooth gradients and some noise, which compresses roughly like a photo.
+     */
+    static Bitmap photo(int width, int height) {
+        Random random = new Random(42);
+        int[] row = new int[width];
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + noise) & 0xFF;
+                row[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+            bitmap.setPixels(row, 0, width, 0, y, width, 1);
+        }
+        return bitmap;
+    }
+
+    @Test
+    public void scaleCompressEncode() throws Exception {
+        for (int[] resolution : RESOLUTIONS) {
+            final Bitmap source = photo(resolution[0], resolution[1]);
+            String size = resolution[0] + "x" + resolution[1];
+
+            MicroBenchmark.measure("scaleBitmapDown/" + size, 5, 50,
+                    () -> LandmarkActivity.scaleBitmapDown(source, 640));
+
+            final Bitmap scaled = LandmarkActivity.scaleBitmapDown(source, 640);
+            MicroBenchmark.measure("scale+jpeg+base64/" + size, 5, 50, () -> {
+                Bitmap bitmap = LandmarkActivity.scaleBitmapDown(source, 640);
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
+                Base64.encodeToString(byteArrayOutputStream.toByteArray(), Base64.NO_WRAP);
+            });
+            MicroBenchmark.measure("jpeg+base64 of 640px/" + size, 5, 50, () -> {
+                ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+                scaled.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
+                Base64.encodeToString(byteArrayOutputStream.toByteArray(), Base64.NO_WRAP);
+            });
+            final VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+            MicroBenchmark.measure("scale+streaming request/" + size, 5, 50, () -> {
+                Bitmap bitmap = LandmarkActivity.scaleBitmapDown(source, 640);
+                encoder.encode(bitmap, 100, 5);
+            });
+            encoder.recycle();
+            source.recycle();
+        }
+    }
+}
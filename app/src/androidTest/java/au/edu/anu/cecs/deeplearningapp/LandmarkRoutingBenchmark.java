@@ -0,0 +1,135 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Compares the latency of recognizing landmarks on the device, in the cloud and
+ * with the hybrid router.
+ *
+ * The on-device model is not bundled; push it to the device and pass its path:
+ * adb push landmarks.tflite /data/local/tmp/
+ * ./gradlew connectedAndroidTest
+ *     -Pandroid.testInstrumentationRunnerArguments.class=au.edu.anu.cecs.deeplearningapp.LandmarkRoutingBenchmark
+ *     -Pandroid.testInstrumentationRunnerArguments.landmarkModel=/data/local/tmp/landmarks.tflite
+ * The cloud is a stand-in answering after cloudLatencyMs (default 600), the
+ * typical annotateImage round trip; measure the real one from the "LandmarkRouter"
+ * log lines of the app.
+ */
+@RunWith(AndroidJUnit4.class)
+public class LandmarkRoutingBenchmark {
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ScheduledExecutorService network = Executors.newSingleThreadScheduledExecutor();
+    private LandmarkClassifier classifier;
+    private long cloudLatencyMs;
+
+    @Before
+    public void setUp() throws Exception {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        String modelPath = arguments.getString("landmarkModel");
+        assumeTrue("No landmarkModel argument", modelPath != null);
+        classifier = LandmarkClassifier.load(new File(modelPath));
+        cloudLatencyMs = Long.parseLong(arguments.getString("cloudLatencyMs", "600"));
+    }
+
+    @After
+    public void tearDown() {
+        network.shutdownNow();
+        if (classifier != null) {
+            classifier.close();
+        }
+    }
+
+    /**
+     * A router in the given mode whose cloud answers after the stand-in latency.
+     * The cache never matches, so every image takes the routed path.
+     */
+    private LandmarkRouter router(LandmarkRouter.Mode mode) {
+        final FakeClient cloud = new FakeClient();
+        LandmarkRouter router = new LandmarkRouter(new LandmarkRecognizer(cloud,
+                new LandmarkCache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES,
+                        LandmarkCache.DEFAULT_TTL_MS, -1, System::currentTimeMillis)),
+                mode, LandmarkRouter.DEFAULT_THRESHOLD);
+        router.setClassifier(classifier);
+        return router;
+    }
+
+    private class FakeClient implements VisionClient {
+        @Override
+        public void annotate(String requestJson, final Callback callback) {
+            network.schedule(() -> callback.onSuccess(VisionJsonBenchmark.response(1)),
+                    cloudLatencyMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void recognize(LandmarkRouter router, Bitmap image,
+                                  final AtomicInteger onDevice) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        router.recognize(image, ImageHash.dHash(image), () -> {
+            VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+            try {
+                return encoder.encode(image, VisionRequestEncoder.DEFAULT_JPEG_QUALITY,
+                        VisionRequestEncoder.DEFAULT_MAX_RESULTS);
+            } finally {
+                encoder.recycle();
+            }
+        }, new LandmarkRouter.Callback() {
+            @Override
+            public void onResult(Object data, LandmarkRouter.Route route) {
+                if (route == LandmarkRouter.Route.DEVICE) {
+                    onDevice.incrementAndGet();
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void localCloudAndHybridLatency() throws Exception {
+        final Bitmap image = LandmarkActivity.scaleBitmapDown(
+                LandmarkPreprocessBenchmark.photo(4032, 3024),
+                VisionRequestEncoder.DEFAULT_MAX_DIMENSION);
+
+        MicroBenchmark.measure("on-device classify", () -> classifier.classify(image));
+
+        for (LandmarkRouter.Mode mode : LandmarkRouter.Mode.values()) {
+            final LandmarkRouter router = router(mode);
+            final AtomicInteger onDevice = new AtomicInteger();
+            MicroBenchmark.measure("route " + mode, WARMUP, ITERATIONS,
+                    () -> recognize(router, image, onDevice));
+            MicroBenchmark.report("route " + mode + ": " + onDevice.get() + " of "
+                    + (WARMUP + 2 * ITERATIONS) + " answered on the device");
+        }
+    }
+}
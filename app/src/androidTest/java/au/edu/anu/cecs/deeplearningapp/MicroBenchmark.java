@@ -0,0 +1,122 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.os.Bundle;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A small benchmark harness for instrumented tests.
+ *
+ * The operation is warmed up, then every measured iteration is timed on its own
+ * so that p50 and p99 latencies can be reported. Allocations are counted in a
+ * separate pass, so the counting does not skew the timings.
+ *
+ * Results are written to logcat under the "Benchmark" tag and to the
+ * instrumentation status, which is printed by "am instrument -r". Run a suite with
+ * ./gradlew connectedAndroidTest
+ *     -Pandroid.testInstrumentationRunnerArguments.class=au.edu.anu.cecs.deeplearningapp.SentimentBenchmark
+ * and compare numbers from the same device and build type only.
+ */
+final class MicroBenchmark {
+    static final int DEFAULT_WARMUP = 20;
+    static final int DEFAULT_ITERATIONS = 200;
+
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    static final class Result {
+        final String name;
+        final int iterations;
+        final long p50Ns;
+        final long p99Ns;
+        final long meanNs;
+        final long allocationsPerOp;
+        final long bytesPerOp;
+
+        Result(String name, int iterations, long p50Ns, long p99Ns, long meanNs,
+               long allocationsPerOp, long bytesPerOp) {
+            this.name = name;
+            this.iterations = iterations;
+            this.p50Ns = p50Ns;
+            this.p99Ns = p99Ns;
+            this.meanNs = meanNs;
+            this.allocationsPerOp = allocationsPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s: p50=%.3f ms, p99=%.3f ms, mean=%.3f ms, %d allocs/op, %d bytes/op (n=%d)",
+                    name, p50Ns / 1e6, p99Ns / 1e6, meanNs / 1e6,
+                    allocationsPerOp, bytesPerOp, iterations);
+        }
+    }
+
+    private MicroBenchmark() {
+    }
+
+    static Result measure(String name, Operation operation) throws Exception {
+        return measure(name, DEFAULT_WARMUP, DEFAULT_ITERATIONS, operation);
+    }
+
+    @SuppressWarnings("deprecation")
+    static Result measure(String name, int warmup, int iterations, Operation operation)
+            throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+
+        long[] samples = new long[iterations];
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            samples[i] = System.nanoTime() - start;
+            total += samples[i];
+        }
+        Arrays.sort(samples);
+
+        // Debug's allocation counters are deprecated but still supported by ART
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        for (int i = 0; i < iterations; i++) {
+            operation.run();
+        }
+        long allocations = Debug.getThreadAllocCount();
+        long bytes = Debug.getThreadAllocSize();
+        Debug.stopAllocCounting();
+
+        Result result = new Result(name, iterations,
+                percentile(samples, 0.50), percentile(samples, 0.99), total / iterations,
+                allocations / iterations, bytes / iterations);
+        report(result);
+        return result;
+    }
+
+    static void report(Result result) {
+        report(result.toString());
+    }
+
+    /**
+     * Report a line measured outside of measure(), e.g. a throughput run.
+     */
+    static void report(String line) {
+        Log.i("Benchmark", line);
+        Bundle status = new Bundle();
+        status.putString("benchmark", line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
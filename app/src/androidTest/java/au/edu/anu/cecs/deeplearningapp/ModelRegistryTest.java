@@ -0,0 +1,229 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+import android.os.Debug;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that model updates are verified and swapped in while the app runs, and
+ * that the models they replace are freed, using a local stand-in for Firebase ML
+ * that serves copies of the bundled sentiment model.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ModelRegistryTest {
+    private static final int WARMUP_CYCLES = 3;
+    private static final int CYCLES = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+    /**
+     * Serves the last published version of the sentiment model and nothing else.
+     */
+    private class LocalModelSource implements ModelSource {
+        private File file;
+        private String hash;
+
+        synchronized String getHash() {
+            return hash;
+        }
+
+        /**
+         * Publish the bundled model with a version marker appended, which the
+         * interpreter ignores but which gives every version its own hash.
+         */
+        synchronized void publish(int version) throws IOException {
+            publish(version, null);
+        }
+
+        /**
+         * Publish a version announced with the given hash, or its own if null.
+         */
+        synchronized void publish(int version, String announcedHash) throws IOException {
+            File next = folder.newFile("sentiment-" + version + ".tflite");
+            try (InputStream input = context.getAssets().open(SentimentModel.BUNDLED_ASSET);
+                 OutputStream output = new FileOutputStream(next)) {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, read);
+                }
+                output.write(("version " + version).getBytes(StandardCharsets.US_ASCII));
+            }
+            hash = announcedHash != null ? announcedHash : ModelChecksum.sha256(next);
+            file = next;
+        }
+
+        @Override
+        public synchronized void getModel(String name, boolean latest, Callback callback) {
+            if (!name.startsWith(SentimentVariant.MODEL_NAME) || file == null) {
+                callback.onFailure(new FileNotFoundException(name));
+                return;
+            }
+            callback.onModel(file, hash);
+        }
+    }
+
+    /**
+     * Stands in for a sentiment screen, which registers when it is created and
+     * unregisters when it is destroyed.
+     */
+    private static class Screen implements ModelRegistry.Listener {
+        volatile SentimentBatcher batcher;
+        volatile String version;
+
+        @Override
+        public void onSentimentModel(SentimentBatcher sentimentBatcher, String modelVersion) {
+            batcher = sentimentBatcher;
+            version = modelVersion;
+        }
+
+        @Override
+        public void onLandmarkClassifier(LandmarkClassifier classifier) {
+        }
+
+        void awaitVersion(String expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!expected.equals(version)) {
+                assertTrue("Version " + expected + " not installed", System.nanoTime() < deadline);
+                Thread.sleep(10);
+            }
+        }
+
+        void classify(int texts) throws InterruptedException {
+            CountDownLatch done = new CountDownLatch(texts);
+            AtomicInteger failed = new AtomicInteger();
+            for (int i = 0; i < texts; i++) {
+                batcher.classifyBlocking("a great movie " + i, (text, results) -> {
+                    if (results == null) {
+                        failed.incrementAndGet();
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+            assertEquals(0, failed.get());
+        }
+    }
+
+    private static void onMain(Runnable action) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(action);
+    }
+
+    private static long nativeHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            Runtime.getRuntime().gc();
+            System.runFinalization();
+        }
+        return Debug.getNativeHeapAllocatedSize();
+    }
+
+    private static void awaitClosed(SentimentModel model) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!model.isClosed()) {
+            assertTrue("Replaced model still open", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Register a new screen, wait for the version and classify on it, then
+     * unregister the screen. Returns the model it classified with.
+     */
+    private static SentimentModel recreateScreen(ModelRegistry registry, String version)
+            throws InterruptedException {
+        final Screen screen = new Screen();
+        onMain(() -> registry.addListener(screen));
+        screen.awaitVersion(version);
+        SentimentModel model = screen.batcher.getModel();
+        screen.classify(64);
+        onMain(() -> registry.removeListener(screen));
+        return model;
+    }
+
+    @Test
+    public void nativeMemoryStaysFlatAcrossUpdates() throws Exception {
+        long beforeStart = nativeHeapAfterGc();
+        LocalModelSource source = new LocalModelSource();
+        source.publish(0);
+        final ModelRegistry registry = new ModelRegistry(source);
+        onMain(() -> registry.start(context));
+        SentimentModel previous = recreateScreen(registry, source.getHash());
+        // What one installed model costs, its interpreters and their tensors
+        long modelCost = Math.max(nativeHeapAfterGc() - beforeStart, 1024 * 1024);
+
+        long baseline = 0;
+        List<Long> samples = new ArrayList<>();
+        for (int cycle = 1; cycle <= CYCLES; cycle++) {
+            source.publish(cycle);
+            registry.checkForUpdates();
+            SentimentModel model = recreateScreen(registry, source.getHash());
+            assertNotSame(previous, model);
+            awaitClosed(previous);
+            previous = model;
+            if (cycle == WARMUP_CYCLES) {
+                baseline = nativeHeapAfterGc();
+            } else if (cycle > WARMUP_CYCLES) {
+                samples.add(nativeHeapAfterGc() - baseline);
+            }
+        }
+
+        long growth = samples.get(samples.size() - 1);
+        MicroBenchmark.report("Native heap after " + CYCLES + " updates: model " + modelCost / 1024
+                + " KB, growth per cycle " + samples + " bytes");
+        // A leaked model per update would have grown it by more than ten models by now
+        assertTrue("Native heap grew by " + growth + " bytes", growth < 2 * modelCost);
+    }
+
+    @Test
+    public void corruptedDownloadIsNotInstalled() throws Exception {
+        Metrics.setEnabled(true);
+        LocalModelSource source = new LocalModelSource();
+        source.publish(0);
+        final ModelRegistry registry = new ModelRegistry(source);
+        onMain(() -> registry.start(context));
+        String installed = source.getHash();
+        SentimentModel model = recreateScreen(registry, installed);
+        source.publish(2);
+        String otherHash = source.getHash();
+
+        Metrics.Counter rejected =
+                Metrics.counter("model." + SentimentVariant.FLOAT32.firebaseName() + ".rejected");
+        long rejectedBefore = rejected.get();
+        // A file that is not the version announced
+        source.publish(1, otherHash);
+        registry.checkForUpdates();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (rejected.get() == rejectedBefore) {
+            assertTrue("Corrupted model not rejected", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+
+        assertSame(model, recreateScreen(registry, installed));
+        assertFalse(model.isClosed());
+    }
+}
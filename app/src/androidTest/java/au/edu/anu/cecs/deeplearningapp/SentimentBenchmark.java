@@ -0,0 +1,256 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.tensorflow.lite.task.text.nlclassifier.NLClassifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks sentiment inference on the bundled sentiment_analysis.tflite.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SentimentBenchmark {
+    private static final String[] WORDS = {
+            "the", "movie", "was", "surprisingly", "good", "but", "the", "ending",
+            "felt", "rushed", "and", "the", "acting", "never", "quite", "convinced"
+    };
+    private static final int[] TEXT_LENGTHS = {8, 32, 128, 256};
+
+    static String text(int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(WORDS[i % WORDS.length]).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static Context context() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    @Test
+    public void nlClassifierLatencyByTextLength() throws Exception {
+        NLClassifier classifier =
+                NLClassifier.createFromFile(context(), SentimentModel.BUNDLED_ASSET);
+        try {
+            for (int length : TEXT_LENGTHS) {
+                final String text = text(length);
+                MicroBenchmark.measure("NLClassifier.classify/" + length + " words",
+                        () -> classifier.classify(text));
+            }
+        } finally {
+            classifier.close();
+        }
+    }
+
+    /**
+     * Run the operation many times and report the heap allocated per call,
+     * which includes whatever other threads allocate meanwhile.
+     */
+    private static void reportAllocations(String name, MicroBenchmark.Operation operation)
+            throws Exception {
+        int calls = 1000;
+        long gcBefore = MemoryStats.gcCount();
+        long before = MemoryStats.bytesAllocated();
+        for (int i = 0; i < calls; i++) {
+            operation.run();
+        }
+        long allocated = MemoryStats.bytesAllocated() - before;
+        MicroBenchmark.report(String.format(Locale.ROOT, "%s: %d bytes allocated per call, %d GCs",
+                name, allocated / calls, MemoryStats.gcCount() - gcBefore));
+    }
+
+    @Test
+    public void lowLevelClassifierVersusNLClassifier() throws Exception {
+        final String text = text(32);
+        NLClassifier nlClassifier =
+                NLClassifier.createFromFile(context(), SentimentModel.BUNDLED_ASSET);
+        SentimentClassifier classifier = new SentimentClassifier(
+                SentimentModel.mapAsset(context(), SentimentModel.BUNDLED_ASSET));
+        final SentimentScores scores = new SentimentScores();
+        try {
+            MicroBenchmark.measure("NLClassifier.classify", () -> nlClassifier.classify(text));
+            MicroBenchmark.measure("SentimentClassifier.classify",
+                    () -> classifier.classify(text, scores));
+            reportAllocations("NLClassifier.classify", () -> nlClassifier.classify(text));
+            reportAllocations("SentimentClassifier.classify",
+                    () -> classifier.classify(text, scores));
+        } finally {
+            nlClassifier.close();
+            classifier.close();
+        }
+    }
+
+    /**
+     * Classify texts through the batcher with the real interpreters and report the
+     * heap allocated per text, which covers queueing the text as well as
+     * delivering its scores.
+     */
+    @Test
+    public void batcherAllocationsPerText() throws Exception {
+        SentimentModel model = SentimentModel.loadBundled(context());
+        SentimentBatcher batcher = new SentimentBatcher(model);
+        final String text = text(32);
+        final Set<SentimentScores> delivered =
+                Collections.newSetFromMap(new IdentityHashMap<SentimentScores, Boolean>());
+        final AtomicInteger failed = new AtomicInteger();
+        final Semaphore done = new Semaphore(0);
+        SentimentBatcher.Callback callback = (input, scores) -> {
+            if (scores == null || scores.count() != 2) {
+                failed.incrementAndGet();
+            } else {
+                delivered.add(scores);
+            }
+            done.release();
+        };
+        try {
+            int warmUp = 256;
+            for (int i = 0; i < warmUp; i++) {
+                batcher.classifyBlocking(text, callback);
+            }
+            assertTrue(done.tryAcquire(warmUp, 60, TimeUnit.SECONDS));
+
+            int texts = 4096;
+            long gcBefore = MemoryStats.gcCount();
+            long before = MemoryStats.bytesAllocated();
+            for (int i = 0; i < texts; i++) {
+                batcher.classifyBlocking(text, callback);
+            }
+            assertTrue(done.tryAcquire(texts, 60, TimeUnit.SECONDS));
+            long allocated = MemoryStats.bytesAllocated() - before;
+            MicroBenchmark.report(String.format(Locale.ROOT,
+                    "SentimentBatcher: %d bytes allocated per text, %d GCs",
+                    allocated / texts, MemoryStats.gcCount() - gcBefore));
+
+            assertEquals(0, failed.get());
+            // Every worker hands out the same scores for each of its texts
+            assertTrue(delivered.size() <= model.getParallelism());
+        } finally {
+            batcher.close();
+        }
+    }
+
+    /**
+     * Time the first classification of a freshly created batcher.
+     */
+    private static double firstClassifyMs(SentimentModel model) throws InterruptedException {
+        SentimentBatcher batcher = new SentimentBatcher(model);
+        CountDownLatch done = new CountDownLatch(1);
+        long start = System.nanoTime();
+        batcher.classify(text(16), (input, results) -> done.countDown());
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        double elapsedMs = (System.nanoTime() - start) / 1e6;
+        batcher.close();
+        return elapsedMs;
+    }
+
+    @Test
+    public void coldVersusWarmFirstInference() throws Exception {
+        double coldMs = firstClassifyMs(SentimentModel.loadBundled(context()));
+
+        long start = System.nanoTime();
+        SentimentModel model = SentimentModel.loadBundled(context());
+        ModelRegistry.WarmUp warmUp = ModelRegistry.warmUp(model, start);
+        double warmMs = firstClassifyMs(model);
+
+        MicroBenchmark.report(warmUp.toString());
+        MicroBenchmark.report(String.format(Locale.ROOT,
+                "First classification: cold %.1f ms, after warm-up %.1f ms", coldMs, warmMs));
+    }
+
+    @Test
+    public void batchedEngineVersusPerCallLoop() throws Exception {
+        int total = 512;
+        String[] texts = new String[total];
+        for (int i = 0; i < total; i++) {
+            texts[i] = text(8 + i % 64);
+        }
+
+        // One NLClassifier call per text, as the screen used to do
+        NLClassifier classifier =
+                NLClassifier.createFromFile(context(), SentimentModel.BUNDLED_ASSET);
+        long start = System.nanoTime();
+        for (String text : texts) {
+            classifier.classify(text);
+        }
+        long perCallNs = System.nanoTime() - start;
+        classifier.close();
+
+        SentimentBatcher batcher = new SentimentBatcher(SentimentModel.loadBundled(context()));
+        CountDownLatch done = new CountDownLatch(total);
+        start = System.nanoTime();
+        for (String text : texts) {
+            batcher.classify(text, (input, results) -> done.countDown());
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        long batchedNs = System.nanoTime() - start;
+        batcher.close();
+
+        MicroBenchmark.report(String.format(Locale.ROOT,
+                "Sentiment throughput: per-call %.0f texts/s, batched %.0f texts/s",
+                total / (perCallNs / 1e9), total / (batchedNs / 1e9)));
+    }
+
+    /**
+     * A CSV export of the given number of comments, generated as it is read.
+     */
+    private static InputStream export(final int records) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = -1;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < records;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String line = next < 0 ? "id,text\n"
+                        : next + ",\"" + text(8 + next % 64) + "\"\n";
+                next++;
+                return new ByteArrayInputStream(line.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    @Test
+    public void bulkScoringThroughput() throws Exception {
+        int records = 20000;
+        File dir = context().getCacheDir();
+        File output = new File(dir, "bulk-benchmark.csv");
+        File checkpoint = new File(dir, "bulk-benchmark.checkpoint");
+        checkpoint.delete();
+
+        SentimentBatcher batcher = new SentimentBatcher(SentimentModel.loadBundled(context()));
+        try {
+            BulkSentimentScorer.Report report = new BulkSentimentScorer(batcher, output,
+                    checkpoint).score(export(records), "benchmark", (done, rate) -> { });
+            assertEquals(records, report.records);
+            MicroBenchmark.report("Bulk scoring: " + report);
+        } finally {
+            batcher.close();
+            output.delete();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.util.Base64;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmarks building the Cloud Vision request and reading its response.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VisionJsonBenchmark {
+    private static final int[] ANNOTATION_COUNTS = {1, 10, 50, 200};
+
+    /**
+     * The data a callable function returns for a landmark response, as nested maps
+     * and lists like the Firebase SDK decodes it.
+     */
+    static Object response(int annotations) {
+        List<Object> landmarks = new ArrayList<>();
+        for (int i = 0; i < annotations; i++) {
+            Map<String, Object> landmark = new HashMap<>();
+            landmark.put("mid", "/m/0" + i);
+            landmark.put("description", "Sydney Opera House " + i);
+            landmark.put("score", 0.9 - i * 0.001);
+            List<Object> vertices = new ArrayList<>();
+            for (int v = 0; v < 4; v++) {
+                Map<String, Object> vertex = new HashMap<>();
+                vertex.put("x", 10 * v);
+                vertex.put("y", 20 * v);
+                vertices.add(vertex);
+            }
+            landmark.put("boundingPoly", Collections.singletonMap("vertices", vertices));
+            Map<String, Object> latLng = new HashMap<>();
+            latLng.put("latitude", -33.857 + i);
+            latLng.put("longitude", 151.215 + i);
+            landmark.put("locations",
+                    Collections.singletonList(Collections.singletonMap("latLng", latLng)));
+            landmarks.add(landmark);
+        }
+        return Collections.singletonList(
+                Collections.singletonMap("landmarkAnnotations", landmarks));
+    }
+
+    static String base64(int length) {
+        char[] content = new char[length];
+        Arrays.fill(content, 'A');
+        return new String(content);
+    }
+
+    /**
+     * The request as LandmarkActivity used to build it, through a Gson tree.
+     */
+    static JsonObject gsonRequest(String base64encoded) {
+        JsonObject request = new JsonObject();
+        JsonObject image = new JsonObject();
+        image.add("content", new JsonPrimitive(base64encoded));
+        request.add("image", image);
+        JsonObject feature = new JsonObject();
+        feature.add("maxResults", new JsonPrimitive(5));
+        feature.add("type", new JsonPrimitive("LANDMARK_DETECTION"));
+        JsonArray features = new JsonArray();
+        features.add(feature);
+        request.add("features", features);
+        return request;
+    }
+
+    /**
+     * The response as LandmarkActivity used to read it: serialized with a new
+     * Gson, parsed back into a tree and the first annotation read from it.
+     */
+    static String gsonDescribe(Object data) {
+        JsonElement response = JsonParser.parseString(new Gson().toJson(data));
+        StringBuilder result = new StringBuilder();
+        for (JsonElement label : response.getAsJsonArray().get(0).getAsJsonObject()
+                .get("landmarkAnnotations").getAsJsonArray()) {
+            JsonObject labelObj = label.getAsJsonObject();
+            result.append("Prediction ---\n")
+                    .append("Description: " + labelObj.get("description").getAsString() + "\n")
+                    .append("Entity ID: " + labelObj.get("mid").getAsString() + "\n")
+                    .append("Prediction Score: " + labelObj.get("score").getAsFloat() + "\n");
+            JsonObject latLng = labelObj.get("locations").getAsJsonArray().get(0)
+                    .getAsJsonObject().get("latLng").getAsJsonObject();
+            result.append("Latitude: " + latLng.get("latitude").getAsDouble() + "\n")
+                    .append("Longitude: " + latLng.get("longitude").getAsDouble() + "\n");
+            result.append("\n");
+            break;
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void buildRequest() throws Exception {
+        final byte[] jpeg = new byte[150 * 1024];
+        new Random(1).nextBytes(jpeg);
+        MicroBenchmark.measure("gson request/150KB image", () -> gsonRequest(
+                Base64.encodeToString(jpeg, Base64.NO_WRAP)).toString());
+
+        final VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+        MicroBenchmark.measure("VisionRequestEncoder/150KB image",
+                () -> encoder.encode(jpeg, 0, jpeg.length, 5));
+        encoder.recycle();
+    }
+
+    @Test
+    public void parseResponse() throws Exception {
+        for (int count : ANNOTATION_COUNTS) {
+            final Object data = response(count);
+            assertEquals(gsonDescribe(data),
+                    VisionResponseParser.describe(VisionResponseParser.parse(data, 1)));
+            MicroBenchmark.measure("Gson round trip/" + count + " annotations",
+                    () -> gsonDescribe(data));
+            MicroBenchmark.measure("VisionResponseParser top 1/" + count + " annotations",
+                    () -> VisionResponseParser.describe(VisionResponseParser.parse(data, 1)));
+            MicroBenchmark.measure("VisionResponseParser top 5/" + count + " annotations",
+                    () -> VisionResponseParser.describe(VisionResponseParser.parse(data, 5)));
+        }
+    }
+}
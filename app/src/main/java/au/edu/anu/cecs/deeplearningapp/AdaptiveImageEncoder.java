@@ -0,0 +1,277 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.ConnectivityManager;
+import android.os.Build;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+
+/**
+ * Builds the Cloud Vision request for an image within a byte budget that
+ * depends on the network in use.
+ *
+ * The image is compressed at the budget's highest quality first, which is
+ * usually small enough. Otherwise the quality is binary-searched down to the
+ * lowest one, and if even that is too big the image is scaled down by a
+ * quarter and searched again. Landmark detection does not need more than a
+ * modest JPEG, so this keeps requests small on metered networks without
+ * changing what is recognized.
+ *
+ * The compressed bytes go to two buffers that are reused across requests, so
+ * an encoder must only be used by one thread at a time.
+ */
+public class AdaptiveImageEncoder {
+    // Qualities closer than this are not worth another compression
+    static final int QUALITY_STEP = 5;
+    // Images are not scaled below this, whatever the budget
+    static final int MIN_DIMENSION = 256;
+    private static final int INITIAL_CAPACITY = 128 * 1024;
+
+    public enum Network {
+        UNMETERED, METERED
+    }
+
+    /**
+     * Size and quality limits of the images sent over one type of network.
+     */
+    public static final class Budget {
+        public final int maxDimension;
+        public final int maxBytes;
+        public final int minQuality;
+        public final int maxQuality;
+        public final Bitmap.CompressFormat format;
+
+        /**
+         * @param maxDimension longer side of the image, in pixels
+         * @param maxBytes     size of the compressed image to stay under
+         * @param format       JPEG or WEBP
+         */
+        public Budget(int maxDimension, int maxBytes, int minQuality, int maxQuality,
+                      Bitmap.CompressFormat format) {
+            this.maxDimension = maxDimension;
+            this.maxBytes = maxBytes;
+            this.minQuality = minQuality;
+            this.maxQuality = maxQuality;
+            this.format = format;
+        }
+
+        /**
+         * Always the given JPEG quality, whatever the size.
+         */
+        public static Budget fixed(int maxDimension, int quality) {
+            return new Budget(maxDimension, Integer.MAX_VALUE, quality, quality,
+                    Bitmap.CompressFormat.JPEG);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s %dpx, %d KB, quality %d-%d",
+                    format, maxDimension, maxBytes / 1024, minQuality, maxQuality);
+        }
+    }
+
+    public static final Budget UNMETERED_BUDGET =
+            new Budget(640, 150 * 1024, 50, 90, Bitmap.CompressFormat.JPEG);
+    public static final Budget METERED_BUDGET =
+            new Budget(512, 48 * 1024, 30, 80, Bitmap.CompressFormat.JPEG);
+
+    private final ConnectivityManager connectivity;
+    private final EnumMap<Network, Budget> budgets = new EnumMap<>(Network.class);
+    private Buffer best = new Buffer();
+    private Buffer scratch = new Buffer();
+
+    // Figures of the last image encoded
+    private Network network;
+    private int dimension;
+    private int quality;
+    private int attempts;
+
+    /**
+     * @param context used to tell metered networks apart, or null to always
+     *                use the unmetered budget
+     */
+    public AdaptiveImageEncoder(Context context) {
+        connectivity = context == null ? null
+                : (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        budgets.put(Network.UNMETERED, UNMETERED_BUDGET);
+        budgets.put(Network.METERED, METERED_BUDGET);
+    }
+
+    public void setBudget(Network network, Budget budget) {
+        budgets.put(network, budget);
+    }
+
+    public Budget getBudget(Network network) {
+        return budgets.get(network);
+    }
+
+    /**
+     * Build the landmark detection request for the image, within the budget of
+     * the current network.
+     */
+    public String encode(Bitmap bitmap, int maxResults) {
+        network = currentNetwork();
+        Budget budget = budgets.get(network);
+        dimension = Math.min(budget.maxDimension, longerSide(bitmap));
+        attempts = 0;
+        while (true) {
+            Bitmap scaled = scale(bitmap, dimension);
+            boolean fits;
+            try {
+                fits = compressWithin(scaled, budget);
+            } finally {
+                if (scaled != bitmap) {
+                    scaled.recycle();
+                }
+            }
+            if (fits || dimension * 3 / 4 < MIN_DIMENSION) {
+                break;
+            }
+            dimension = dimension * 3 / 4;
+        }
+
+        VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+        try {
+            return encoder.encode(best.bytes, 0, best.count, maxResults);
+        } finally {
+            encoder.recycle();
+        }
+    }
+
+    /**
+     * Leave the highest quality that fits the budget in best, or the lowest
+     * quality if none does. Returns whether it fits.
+     */
+    private boolean compressWithin(Bitmap image, Budget budget) {
+        if (compress(image, budget, budget.maxQuality, best)) {
+            quality = budget.maxQuality;
+            return true;
+        }
+        if (!compress(image, budget, budget.minQuality, best)) {
+            quality = budget.minQuality;
+            return false;
+        }
+        // minQuality fits and maxQuality does not
+        int low = budget.minQuality;
+        int high = budget.maxQuality;
+        while (high - low > QUALITY_STEP) {
+            int middle = (low + high) >>> 1;
+            if (compress(image, budget, middle, scratch)) {
+                Buffer fitting = scratch;
+                scratch = best;
+                best = fitting;
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        quality = low;
+        return true;
+    }
+
+    private boolean compress(Bitmap image, Budget budget, int quality, Buffer into) {
+        attempts++;
+        into.count = 0;
+        compress(image, budget.format, quality, into);
+        return into.count <= budget.maxBytes;
+    }
+
+    Network currentNetwork() {
+        if (connectivity != null && connectivity.isActiveNetworkMetered()) {
+            return Network.METERED;
+        }
+        return Network.UNMETERED;
+    }
+
+    int longerSide(Bitmap bitmap) {
+        return Math.max(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * Scale the bitmap down so its longer side is at most maxDimension. Returns the
+     * bitmap itself if it is small enough.
+     */
+    Bitmap scale(Bitmap bitmap, int maxDimension) {
+        int longer = longerSide(bitmap);
+        if (longer <= maxDimension) {
+            return bitmap;
+        }
+        float ratio = maxDimension / (float) longer;
+        return Bitmap.createScaledBitmap(bitmap, Math.round(bitmap.getWidth() * ratio),
+                Math.round(bitmap.getHeight() * ratio), true);
+    }
+
+    @SuppressWarnings("deprecation")
+    void compress(Bitmap image, Bitmap.CompressFormat format, int quality, OutputStream out) {
+        // Plain WEBP turns lossless at quality 100 and is deprecated from Android 11
+        if (format == Bitmap.CompressFormat.WEBP
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            format = Bitmap.CompressFormat.WEBP_LOSSY;
+        }
+        image.compress(format, quality, out);
+    }
+
+    /**
+     * The network whose budget the last image was encoded with.
+     */
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * The longer side the last image was scaled down to. Smaller images are sent
+     * as they are.
+     */
+    public int getDimension() {
+        return dimension;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Size of the last compressed image, in bytes.
+     */
+    public int getImageLength() {
+        return best.count;
+    }
+
+    /**
+     * Number of compressions the last image took.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * A growable byte array that is written to by Bitmap.compress.
+     */
+    private static final class Buffer extends OutputStream {
+        byte[] bytes = new byte[INITIAL_CAPACITY];
+        int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(source, offset, bytes, count, length);
+            count += length;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (count + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recognizes landmarks in many images with few calls.
+ *
+ * The single-image requests are packed into one {"requests": [...]} batch per
+ * call, up to maxImagesPerCall images or maxPayloadBytes of JSON. At most
+ * maxInFlight calls run at once; when they are all busy, packing waits, so only
+ * a bounded number of encoded images is held in memory. A failed call is retried
+ * with exponential backoff before its images are reported as failed.
+ *
+ * Used as a VisionClient, it answers each single-image request on its own, so
+ * it can stand in for the annotateImage client, e.g. behind a LandmarkRecognizer.
+ * Requests are only sent once their batch is full or flush() is called.
+ *
+ * The client must call a function that takes the batch and answers with one
+ * response per image, in order, as Cloud Vision's images:annotate does.
+ */
+public class BatchRecognizer implements VisionClient {
+    // Cloud Vision accepts at most 16 images and 10 MB per batch request
+    public static final int DEFAULT_MAX_IMAGES_PER_CALL = 16;
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 8 * 1024 * 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 3;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BACKOFF_MS = 500;
+
+    /**
+     * Builds the single-image request for each image, on the thread that runs the batch.
+     */
+    public interface Source {
+        int size();
+
+        String request(int index) throws Exception;
+    }
+
+    /**
+     * Receives the outcome of each image, on the thread the client calls back on.
+     * Responses have the shape of a single-image response, so
+     * VisionResponseParser can read them.
+     */
+    public interface Listener {
+        void onResult(int index, Object response);
+
+        void onFailure(int index, Exception e);
+
+        void onProgress(int done, int total);
+
+        void onComplete(int succeeded, int failed, long elapsedMs);
+    }
+
+    private static final String BATCH_PREFIX = "{\"requests\":[";
+    private static final String BATCH_SUFFIX = "]}";
+
+    private final VisionClient client;
+    private final int maxImagesPerCall;
+    private final int maxPayloadBytes;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final Semaphore inFlight;
+    private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor();
+    // The batch being packed, guarded by this
+    private Batch pending = new Batch();
+
+    public BatchRecognizer(VisionClient client) {
+        this(client, DEFAULT_MAX_IMAGES_PER_CALL, DEFAULT_MAX_PAYLOAD_BYTES,
+                DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_ATTEMPTS, DEFAULT_BACKOFF_MS);
+    }
+
+    public BatchRecognizer(VisionClient client, int maxImagesPerCall, int maxPayloadBytes,
+                           int maxInFlight, int maxAttempts, long backoffMs) {
+        this.client = client;
+        this.maxImagesPerCall = maxImagesPerCall;
+        this.maxPayloadBytes = maxPayloadBytes;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+        inFlight = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Build, pack and send the requests for every image of the source. Returns
+     * once the last call has been sent; the listener learns when all are answered.
+     */
+    public void recognize(Source source, final Listener listener) throws InterruptedException {
+        final Run run = new Run(source.size(), listener);
+        if (run.total == 0) {
+            listener.onComplete(0, 0, 0);
+            return;
+        }
+
+        for (int i = 0; i < run.total; i++) {
+            String request;
+            try {
+                request = source.request(i);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                run.failed(i, e);
+                continue;
+            }
+            final int index = i;
+            annotate(request, new VisionClient.Callback() {
+                @Override
+                public void onSuccess(Object data) {
+                    run.succeeded(index, data);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    run.failed(index, e);
+                }
+            });
+        }
+        flush();
+    }
+
+    /**
+     * Add a single-image request to the batch being packed, sending the batch
+     * first if the request does not fit. The callback receives the image's
+     * response in the shape of a single-image response.
+     */
+    @Override
+    public void annotate(String requestJson, Callback callback) {
+        Batch full = null;
+        synchronized (this) {
+            if (!pending.fits(requestJson)) {
+                full = pending;
+                pending = new Batch();
+            }
+            pending.add(requestJson, callback);
+        }
+        if (full != null) {
+            submit(full);
+        }
+    }
+
+    /**
+     * Send the batch being packed, if any.
+     */
+    public void flush() {
+        Batch batch;
+        synchronized (this) {
+            if (pending.callbacks.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new Batch();
+        }
+        submit(batch);
+    }
+
+    /**
+     * Stop retrying. Calls already sent still report to their listeners.
+     */
+    public void close() {
+        retries.shutdownNow();
+    }
+
+    private void submit(Batch batch) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.failed(e);
+            return;
+        }
+        send(batch.build(), 1);
+    }
+
+    private void send(final Batch batch, final int attempt) {
+        client.annotate(batch.json, new VisionClient.Callback() {
+            @Override
+            public void onSuccess(Object data) {
+                inFlight.release();
+                List<?> responses = responses(data);
+                if (responses == null || responses.size() != batch.callbacks.size()) {
+                    batch.failed(new IllegalStateException("Expected "
+                            + batch.callbacks.size() + " responses, got " + data));
+                    return;
+                }
+                for (int i = 0; i < responses.size(); i++) {
+                    batch.succeeded(i, responses.get(i));
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (attempt < maxAttempts) {
+                    long delay = backoffMs << (attempt - 1);
+                    Log.w("BatchRecognizer", "Attempt " + attempt + " of a batch of "
+                            + batch.callbacks.size() + " failed, retrying in " + delay + " ms", e);
+                    try {
+                        // The call keeps its in-flight slot while it waits
+                        retries.schedule(() -> send(batch, attempt + 1),
+                                delay, TimeUnit.MILLISECONDS);
+                        return;
+                    } catch (RejectedExecutionException closed) {
+                        // Closed meanwhile, give up on the batch
+                    }
+                }
+                inFlight.release();
+                batch.failed(e);
+            }
+        });
+    }
+
+    /**
+     * The per-image responses of a batch answer, either a list or images:annotate's
+     * {"responses": [...]}.
+     */
+    private static List<?> responses(Object data) {
+        if (data instanceof Map) {
+            data = ((Map<?, ?>) data).get("responses");
+        }
+        return data instanceof List ? (List<?>) data : null;
+    }
+
+    /**
+     * Images packed into one call.
+     */
+    private final class Batch {
+        final List<Callback> callbacks = new ArrayList<>();
+        final List<String> requests = new ArrayList<>();
+        int bytes = BATCH_PREFIX.length() + BATCH_SUFFIX.length();
+        String json;
+
+        boolean fits(String request) {
+            return callbacks.isEmpty() || (callbacks.size() < maxImagesPerCall
+                    && bytes + request.length() + 1 <= maxPayloadBytes);
+        }
+
+        void add(String request, Callback callback) {
+            bytes += request.length() + (callbacks.isEmpty() ? 0 : 1);
+            callbacks.add(callback);
+            requests.add(request);
+        }
+
+        /**
+         * Join the requests, releasing the single-image strings.
+         */
+        Batch build() {
+            StringBuilder builder = new StringBuilder(bytes).append(BATCH_PREFIX);
+            for (int i = 0; i < requests.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(requests.get(i));
+            }
+            json = builder.append(BATCH_SUFFIX).toString();
+            requests.clear();
+            return this;
+        }
+
+        void succeeded(int index, Object response) {
+            Map<?, ?> error = response instanceof Map
+                    ? (Map<?, ?>) ((Map<?, ?>) response).get("error") : null;
+            if (error != null) {
+                // Cloud Vision reports failures of single images inside the batch
+                callbacks.get(index).onFailure(
+                        new IllegalStateException(String.valueOf(error.get("message"))));
+                return;
+            }
+            callbacks.get(index).onSuccess(Collections.singletonList(response));
+        }
+
+        void failed(Exception e) {
+            for (Callback callback : callbacks) {
+                callback.onFailure(e);
+            }
+        }
+    }
+
+    /**
+     * Progress of one recognize() call.
+     */
+    private static final class Run {
+        final int total;
+        final Listener listener;
+        final long start = System.nanoTime();
+        private int succeeded;
+        private int failed;
+
+        Run(int total, Listener listener) {
+            this.total = total;
+            this.listener = listener;
+        }
+
+        synchronized void succeeded(int index, Object response) {
+            succeeded++;
+            listener.onResult(index, response);
+            progress();
+        }
+
+        synchronized void failed(int index, Exception e) {
+            failed++;
+            listener.onFailure(index, e);
+            progress();
+        }
+
+        private void progress() {
+            int done = succeeded + failed;
+            listener.onProgress(done, total);
+            if (done == total) {
+                listener.onComplete(succeeded, failed,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+/**
+ * Runs a batch of tokenized texts through a sentiment model.
+ */
+public interface BatchRunner {
+    /**
+     * Fill scores[i] with the class scores of tokens[i], for the first count rows.
+     */
+    void run(int[][] tokens, int count, float[][] scores);
+
+    /**
+     * Release the native resources held by the runner.
+     */
+    void close();
+}
@@ -0,0 +1,137 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import androidx.annotation.RequiresApi;
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes gallery images straight at the size they are used at.
+ *
+ * Instead of decoding the full-resolution photo and scaling it afterwards, the
+ * image bounds are read first and the decoder subsamples while decoding. From
+ * Android 9 ImageDecoder decodes to the exact target size and applies the EXIF
+ * orientation itself; before that BitmapFactory decodes at the largest power of
+ * two reduction that keeps the image at least maxDimension wide, and the EXIF
+ * rotation is applied afterwards.
+ *
+ * Must not be called on the main thread.
+ */
+public final class BitmapDecoder {
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Decode the image so that its longer side is close to, and not below,
+     * maxDimension (unless the image itself is smaller).
+     *
+     * @param lowMemory decode to RGB_565, halving the memory of the bitmap at the
+     *                  cost of colour depth
+     */
+    public static Bitmap decode(ContentResolver resolver, Uri uri, int maxDimension,
+                                boolean lowMemory) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            bitmap = decodeWithImageDecoder(resolver, uri, maxDimension, lowMemory);
+        } else {
+            bitmap = decodeWithBitmapFactory(resolver, uri, maxDimension, lowMemory);
+        }
+        Log.d("BitmapDecoder", "Decoded " + bitmap.getWidth() + "x" + bitmap.getHeight()
+                + " (" + bitmap.getByteCount() / 1024 + " KB) in "
+                + (SystemClock.elapsedRealtime() - start) + " ms");
+        return bitmap;
+    }
+
+    @RequiresApi(Build.VERSION_CODES.P)
+    private static Bitmap decodeWithImageDecoder(ContentResolver resolver, Uri uri,
+                                                 final int maxDimension,
+                                                 final boolean lowMemory) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(resolver, uri);
+        return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+            Size size = info.getSize();
+            float scale = Math.min(1f,
+                    maxDimension / (float) Math.max(size.getWidth(), size.getHeight()));
+            decoder.setTargetSize(Math.max(1, Math.round(size.getWidth() * scale)),
+                    Math.max(1, Math.round(size.getHeight() * scale)));
+            // Software bitmaps can be compressed and read pixel by pixel
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            if (lowMemory) {
+                decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+            }
+        });
+    }
+
+    private static Bitmap decodeWithBitmapFactory(ContentResolver resolver, Uri uri,
+                                                  int maxDimension,
+                                                  boolean lowMemory) throws IOException {
+        // Read the bounds only, without allocating any pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            BitmapFactory.decodeStream(input, null, options);
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Cannot decode " + uri);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize(options.outWidth, options.outHeight, maxDimension);
+        options.inPreferredConfig = lowMemory ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        Bitmap bitmap;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            bitmap = BitmapFactory.decodeStream(input, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + uri);
+        }
+
+        ExifInterface exif;
+        try (InputStream input = resolver.openInputStream(uri)) {
+            exif = new ExifInterface(input);
+        }
+        return applyOrientation(bitmap, exif.getRotationDegrees(), exif.isFlipped());
+    }
+
+    /**
+     * The largest power of two that keeps the longer side at least maxDimension.
+     */
+    static int sampleSize(int width, int height, int maxDimension) {
+        int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (longer / (sampleSize * 2) >= maxDimension) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap applyOrientation(Bitmap bitmap, int degrees, boolean flipped) {
+        if (degrees == 0 && !flipped) {
+            return bitmap;
+        }
+        // Mirrored orientations are a rotation followed by a horizontal flip
+        Matrix matrix = new Matrix();
+        matrix.postRotate(degrees);
+        if (flipped) {
+            matrix.postScale(-1, 1);
+        }
+        Bitmap oriented = Bitmap.createBitmap(bitmap, 0, 0,
+                bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (oriented != bitmap) {
+            bitmap.recycle();
+        }
+        return oriented;
+    }
+}
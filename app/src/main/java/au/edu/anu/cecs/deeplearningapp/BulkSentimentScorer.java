@@ -0,0 +1,396 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Scores every comment of an exported CSV or JSONL file with a SentimentBatcher
+ * and writes one output row per input record.
+ *
+ * The input is read one record at a time and only a bounded number of texts
+ * are queued at once, so memory does not grow with the file. The batcher runs
+ * the texts in parallel batches and delivers them in order, so results are
+ * appended to the output as they arrive. Every checkpointInterval records the
+ * output is flushed and the position recorded; scoring the same source again
+ * after an interruption continues from there.
+ *
+ * CSV files need a header row, the comment is taken from the column named
+ * "text", or the first column if there is none. JSONL records are objects
+ * with a "text" field. The output is a CSV of record number, best label and
+ * its score; the label is empty for records whose batch failed.
+ */
+public class BulkSentimentScorer {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4 * SentimentBatcher.DEFAULT_BATCH_SIZE;
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 5000;
+
+    /**
+     * Receives the number of records scored so far, after every checkpoint.
+     */
+    public interface Listener {
+        void onProgress(long records, double recordsPerSecond);
+    }
+
+    /**
+     * The outcome of one run.
+     */
+    public static final class Report {
+        // Records scored by this run and records skipped as already scored before
+        public final long records;
+        public final long resumedAfter;
+        public final long failed;
+        public final long elapsedMs;
+        public final long peakHeapBytes;
+
+        Report(long records, long resumedAfter, long failed, long elapsedMs,
+               long peakHeapBytes) {
+            this.records = records;
+            this.resumedAfter = resumedAfter;
+            this.failed = failed;
+            this.elapsedMs = elapsedMs;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        public double recordsPerSecond() {
+            return elapsedMs == 0 ? 0 : records * 1000.0 / elapsedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "Scored %d lines%s in %.1f s, %.0f lines/s, peak heap %d KB, %d failed",
+                    records, resumedAfter > 0 ? " (resumed after " + resumedAfter + ")" : "",
+                    elapsedMs / 1000.0, recordsPerSecond(), peakHeapBytes / 1024, failed);
+        }
+    }
+
+    private final SentimentBatcher batcher;
+    private final File output;
+    private final File checkpoint;
+    private final int maxInFlight;
+    private final int checkpointInterval;
+
+    // Output state, guarded by this and written by the batcher's delivering thread
+    private Writer writer;
+    private FileOutputStream stream;
+    private long written;
+    private long failed;
+    private long peakHeap;
+    private String source;
+    private Listener listener;
+    private long startNanos;
+    private long resumedAfter;
+    private volatile IOException writeError;
+    // Tells the texts of an interrupted run apart from those of the next one
+    private long run;
+
+    public BulkSentimentScorer(SentimentBatcher batcher, File output, File checkpoint) {
+        this(batcher, output, checkpoint, DEFAULT_MAX_IN_FLIGHT, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * @param maxInFlight number of texts queued in the batcher at most
+     */
+    public BulkSentimentScorer(SentimentBatcher batcher, File output, File checkpoint,
+                               int maxInFlight, int checkpointInterval) {
+        this.batcher = batcher;
+        this.output = output;
+        this.checkpoint = checkpoint;
+        this.maxInFlight = maxInFlight;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Score the input, continuing after the last checkpoint if an earlier run of
+     * the same source was interrupted. Blocks until every record is written.
+     * Closes the input.
+     *
+     * @param source identifies the input, e.g. its URI
+     */
+    public Report score(InputStream input, String source, Listener listener)
+            throws IOException, InterruptedException {
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        boolean complete = false;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            long skip = open(source, listener);
+            final long thisRun = run;
+            RecordReader records = new RecordReader(reader);
+            long number = 0;
+            String comment;
+            while ((comment = records.next()) != null) {
+                if (writeError != null) {
+                    throw writeError;
+                }
+                if (++number <= skip) {
+                    continue;
+                }
+                inFlight.acquire();
+                final long record = number;
+                batcher.classifyBlocking(comment, (String text, SentimentScores scores) -> {
+                    write(thisRun, record, scores);
+                    inFlight.release();
+                });
+            }
+            // Wait for the last texts to come back
+            inFlight.acquire(maxInFlight);
+            if (writeError != null) {
+                // Some of the last results were not written
+                throw writeError;
+            }
+            complete = true;
+        } finally {
+            close(complete);
+        }
+
+        synchronized (this) {
+            sampleHeap();
+            return new Report(written - resumedAfter, resumedAfter, failed,
+                    (System.nanoTime() - startNanos) / 1000000, peakHeap);
+        }
+    }
+
+    /**
+     * Open the output, resuming from the checkpoint if it belongs to the same
+     * source. Returns the number of records already scored.
+     */
+    private synchronized long open(String source, Listener listener) throws IOException {
+        this.source = source;
+        this.listener = listener;
+        run++;
+        startNanos = System.nanoTime();
+        writeError = null;
+        failed = 0;
+        peakHeap = MemoryStats.heapUsed();
+
+        long records = 0;
+        long bytes = 0;
+        if (checkpoint.exists() && output.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(checkpoint))) {
+                if (source.equals(reader.readLine())) {
+                    records = Long.parseLong(reader.readLine());
+                    bytes = Long.parseLong(reader.readLine());
+                }
+            } catch (IOException | RuntimeException e) {
+                // A damaged checkpoint means starting over
+                records = 0;
+                bytes = 0;
+            }
+        }
+        // Drop anything written after the checkpoint, it is scored again
+        try (RandomAccessFile file = new RandomAccessFile(output, "rw")) {
+            file.setLength(bytes);
+        }
+
+        stream = new FileOutputStream(output, true);
+        writer = newWriter(stream);
+        if (bytes == 0) {
+            writer.write("line,label,score\n");
+        }
+        written = records;
+        resumedAfter = records;
+        return records;
+    }
+
+    /**
+     * Wrap the output file, replaceable in tests.
+     */
+    Writer newWriter(OutputStream stream) {
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+    }
+
+    private synchronized void write(long run, long record, SentimentScores scores) {
+        if (writer == null || run != this.run) {
+            // Arrived after the run was interrupted, scored again when resuming
+            return;
+        }
+        try {
+            writer.write(Long.toString(record));
+            if (scores == null || scores.count() == 0) {
+                failed++;
+                writer.write(",,\n");
+            } else {
+                writer.write(',');
+                writer.write(csv(scores.getLabel(scores.best())));
+                writer.write(',');
+                writer.write(Float.toString(scores.bestScore()));
+                writer.write('\n');
+            }
+            written++;
+            if (written % checkpointInterval == 0) {
+                saveCheckpoint();
+                sampleHeap();
+                listener.onProgress(written - resumedAfter, (written - resumedAfter)
+                        * 1e9 / Math.max(1, System.nanoTime() - startNanos));
+            }
+        } catch (IOException e) {
+            // Stop writing, the rest is scored again when resuming from the checkpoint
+            writer = null;
+            writeError = e;
+        }
+    }
+
+    private synchronized void close(boolean complete) throws IOException {
+        if (writer == null) {
+            // Failed to open or write, keep the last checkpoint
+            if (stream != null) {
+                stream.close();
+            }
+            return;
+        }
+        try {
+            if (complete) {
+                writer.flush();
+                checkpoint.delete();
+            } else {
+                saveCheckpoint();
+            }
+        } finally {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    /**
+     * Flush the output and record how far it got. The checkpoint is replaced
+     * atomically, so an interruption never leaves a partial one.
+     */
+    private void saveCheckpoint() throws IOException {
+        writer.flush();
+        File temp = new File(checkpoint.getPath() + ".tmp");
+        try (Writer out = new FileWriter(temp)) {
+            out.write(source + "\n" + written + "\n" + stream.getChannel().size() + "\n");
+        }
+        if (!temp.renameTo(checkpoint)) {
+            throw new IOException("Failed to save the checkpoint " + checkpoint);
+        }
+    }
+
+    private void sampleHeap() {
+        peakHeap = Math.max(peakHeap, MemoryStats.heapUsed());
+    }
+
+    private static String csv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Reads the comment of each record, detecting CSV or JSONL from the first line.
+     */
+    static final class RecordReader {
+        private static final String TEXT_FIELD = "text";
+
+        private final BufferedReader reader;
+        private boolean started;
+        private boolean json;
+        private int column;
+
+        RecordReader(BufferedReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Return the comment of the next record, or null at the end of the input.
+         */
+        String next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.trim().isEmpty());
+
+            if (!started) {
+                started = true;
+                json = line.trim().startsWith("{");
+                if (!json) {
+                    // The header names the columns
+                    column = Math.max(0, fields(line).indexOf(TEXT_FIELD));
+                    return next();
+                }
+            }
+            if (json) {
+                try {
+                    JsonElement text = JsonParser.parseString(line).getAsJsonObject()
+                            .get(TEXT_FIELD);
+                    return text == null || text.isJsonNull() ? "" : text.getAsString();
+                } catch (RuntimeException e) {
+                    throw new IOException("Not a JSON object: " + line, e);
+                }
+            }
+            // A quoted field may span several lines
+            while (quotes(line) % 2 != 0) {
+                String more = reader.readLine();
+                if (more == null) {
+                    break;
+                }
+                line = line + '\n' + more;
+            }
+            List<String> fields = fields(line);
+            return column < fields.size() ? fields.get(column) : "";
+        }
+
+        private static int quotes(String line) {
+            int count = 0;
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) == '"') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Split a CSV record, unquoting fields as in RFC 4180.
+         */
+        static List<String> fields(String record) {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < record.length(); i++) {
+                char c = record.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.functions.FirebaseFunctions;
+import com.google.firebase.functions.HttpsCallableResult;
+
+/**
+ * A VisionClient that calls the annotateImage Cloud Function.
+ */
+public class CallableVisionClient implements VisionClient {
+    private final FirebaseFunctions functions;
+    private final String name;
+
+    public CallableVisionClient(FirebaseFunctions functions) {
+        this(functions, "annotateImage");
+    }
+
+    public CallableVisionClient(FirebaseFunctions functions, String name) {
+        this.functions = functions;
+        this.name = name;
+    }
+
+    @Override
+    public void annotate(String requestJson, final Callback callback) {
+        functions.getHttpsCallable(name)
+                .call(requestJson)
+                .addOnCompleteListener(new OnCompleteListener<HttpsCallableResult>() {
+                    @Override
+                    public void onComplete(@NonNull Task<HttpsCallableResult> task) {
+                        if (task.isSuccessful()) {
+                            callback.onSuccess(task.getResult().getData());
+                        } else {
+                            callback.onFailure(task.getException());
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,17 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+
+/**
+ * Starts loading the models as soon as the process starts, so they are ready
+ * by the time a screen needs them. Metrics are collected in debuggable builds.
+ */
+public class DeepLearningApp extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Metrics.setEnabled((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+        ModelRegistry.getInstance().start(this);
+    }
+}
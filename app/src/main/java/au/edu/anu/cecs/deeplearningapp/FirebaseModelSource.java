@@ -0,0 +1,36 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import com.google.firebase.ml.modeldownloader.CustomModel;
+import com.google.firebase.ml.modeldownloader.CustomModelDownloadConditions;
+import com.google.firebase.ml.modeldownloader.DownloadType;
+import com.google.firebase.ml.modeldownloader.FirebaseModelDownloader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Downloads models from Firebase ML over Wi-Fi. The model hash Firebase reports
+ * is the SHA-256 of the file.
+ */
+public class FirebaseModelSource implements ModelSource {
+    @Override
+    public void getModel(final String name, boolean latest, final Callback callback) {
+        CustomModelDownloadConditions conditions = new CustomModelDownloadConditions.Builder()
+                .requireWifi()
+                .build();
+        // The local model answers at once while a newer one downloads for next time
+        DownloadType type = latest
+                ? DownloadType.LATEST_MODEL : DownloadType.LOCAL_MODEL_UPDATE_IN_BACKGROUND;
+        FirebaseModelDownloader.getInstance()
+                .getModel(name, type, conditions)
+                .addOnSuccessListener((CustomModel model) -> {
+                    File modelFile = model.getFile();
+                    if (modelFile == null) {
+                        callback.onFailure(new FileNotFoundException("No file for " + name));
+                        return;
+                    }
+                    callback.onModel(modelFile, model.getModelHash());
+                })
+                .addOnFailureListener(callback::onFailure);
+    }
+}
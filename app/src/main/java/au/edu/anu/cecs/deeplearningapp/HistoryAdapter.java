@@ -0,0 +1,123 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows one kind of history in a RecyclerView, newest at the bottom.
+ *
+ * The newest page is loaded first and older pages as the list is scrolled
+ * towards the top, so only the rows on screen are laid out however long the
+ * history is. Must be used on the main thread.
+ */
+public class HistoryAdapter extends RecyclerView.Adapter<HistoryAdapter.Holder> {
+    // Start loading the previous page this many rows before the top is reached
+    private static final int PREFETCH_DISTANCE = 10;
+
+    static final class Holder extends RecyclerView.ViewHolder {
+        final TextView text;
+
+        Holder(View view) {
+            super(view);
+            text = view.findViewById(R.id.history_text);
+        }
+    }
+
+    private final HistoryStore store;
+    private final String kind;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    private final List<HistoryStore.Entry> entries = new ArrayList<>();
+    private RecyclerView recyclerView;
+    private long oldestId = Long.MAX_VALUE;
+    private boolean loading;
+    private boolean hasMore = true;
+
+    public HistoryAdapter(HistoryStore store, String kind) {
+        this.store = store;
+        this.kind = kind;
+    }
+
+    /**
+     * Show the history in the view and load its newest page.
+     */
+    public void attach(RecyclerView view) {
+        recyclerView = view;
+        final LinearLayoutManager layout = new LinearLayoutManager(view.getContext());
+        layout.setStackFromEnd(true);
+        view.setLayoutManager(layout);
+        view.setAdapter(this);
+        view.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+                if (dy < 0 && layout.findFirstVisibleItemPosition() < PREFETCH_DISTANCE) {
+                    loadOlder();
+                }
+            }
+        });
+        loadOlder();
+    }
+
+    /**
+     * Log a result and show it at the bottom.
+     */
+    public void add(String text) {
+        entries.add(store.append(kind, text));
+        notifyItemInserted(entries.size() - 1);
+        scrollToBottom();
+    }
+
+    private void loadOlder() {
+        if (loading || !hasMore) {
+            return;
+        }
+        loading = true;
+        final boolean first = oldestId == Long.MAX_VALUE;
+        store.loadPage(kind, oldestId, HistoryStore.PAGE_SIZE, page -> main.post(() -> {
+            loading = false;
+            hasMore = page.size() == HistoryStore.PAGE_SIZE;
+            if (page.isEmpty()) {
+                return;
+            }
+            oldestId = page.get(0).id;
+            entries.addAll(0, page);
+            notifyItemRangeInserted(0, page.size());
+            if (first) {
+                scrollToBottom();
+            }
+        }));
+    }
+
+    private void scrollToBottom() {
+        if (recyclerView != null && !entries.isEmpty()) {
+            recyclerView.scrollToPosition(entries.size() - 1);
+        }
+    }
+
+    @NonNull
+    @Override
+    public Holder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new Holder(LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_history, parent, false));
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull Holder holder, int position) {
+        holder.text.setText(entries.get(position).text);
+    }
+
+    @Override
+    public int getItemCount() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,167 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only log of the results shown by the analysis screens, kept in SQLite.
+ *
+ * Appends are buffered and written in one transaction shortly afterwards, on the
+ * store's own thread. Pages are read on the same thread, newest first by row id,
+ * so a page never misses or repeats an entry that was being written. There is one
+ * store per process.
+ */
+public class HistoryStore extends SQLiteOpenHelper {
+    public static final String SENTIMENT = "sentiment";
+    public static final String LANDMARK = "landmark";
+    public static final int PAGE_SIZE = 50;
+
+    private static final String DATABASE = "history.db";
+    private static final int VERSION = 1;
+    private static final long FLUSH_DELAY_MS = 200;
+
+    /**
+     * One logged result. Entries that are not written yet have no id.
+     */
+    public static final class Entry {
+        public static final long NO_ID = -1;
+
+        public final long id;
+        public final String kind;
+        public final long createdAt;
+        public final String text;
+
+        public Entry(long id, String kind, long createdAt, String text) {
+            this.id = id;
+            this.kind = kind;
+            this.createdAt = createdAt;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Receives a page of entries, oldest first, on the store's thread.
+     */
+    public interface PageCallback {
+        void onPage(List<Entry> entries);
+    }
+
+    private static HistoryStore instance;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final List<Entry> pending = new ArrayList<>();
+    private boolean flushScheduled;
+
+    public static synchronized HistoryStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new HistoryStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private HistoryStore(Context context) {
+        super(context, DATABASE, null, VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE history ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "kind TEXT NOT NULL, "
+                + "created_at INTEGER NOT NULL, "
+                + "text TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX history_kind ON history (kind, id)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Only one version so far
+    }
+
+    /**
+     * Log a result. Returns at once; the entry is written with the next batch.
+     */
+    public Entry append(String kind, String text) {
+        Entry entry = new Entry(Entry.NO_ID, kind, System.currentTimeMillis(), text);
+        synchronized (pending) {
+            pending.add(entry);
+            if (!flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(this::writePending, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Write buffered entries without waiting for the batch delay, e.g. when the
+     * screen is stopped.
+     */
+    public void flush() {
+        executor.execute(this::writePending);
+    }
+
+    /**
+     * Load up to limit entries of the kind older than beforeId, or the newest
+     * ones for Long.MAX_VALUE.
+     */
+    public void loadPage(final String kind, final long beforeId, final int limit,
+                         final PageCallback callback) {
+        executor.execute(() -> {
+            List<Entry> entries = new ArrayList<>(limit);
+            try (Cursor cursor = getReadableDatabase().query("history",
+                    new String[]{"id", "created_at", "text"}, "kind = ? AND id < ?",
+                    new String[]{kind, Long.toString(beforeId)},
+                    null, null, "id DESC", Integer.toString(limit))) {
+                while (cursor.moveToNext()) {
+                    entries.add(new Entry(cursor.getLong(0), kind, cursor.getLong(1),
+                            cursor.getString(2)));
+                }
+            } catch (RuntimeException e) {
+                Log.e("HistoryStore", "Failed to load the history", e);
+            }
+            Collections.reverse(entries);
+            callback.onPage(entries);
+        });
+    }
+
+    private void writePending() {
+        List<Entry> batch;
+        synchronized (pending) {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO history (kind, created_at, text) VALUES (?, ?, ?)")) {
+            for (Entry entry : batch) {
+                insert.bindString(1, entry.kind);
+                insert.bindLong(2, entry.createdAt);
+                insert.bindString(3, entry.text);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } catch (RuntimeException e) {
+            Log.e("HistoryStore", "Failed to write " + batch.size() + " entries", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
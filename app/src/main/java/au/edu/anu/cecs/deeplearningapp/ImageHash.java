@@ -0,0 +1,57 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+
+/**
+ * Perceptual difference hash (dHash) of an image.
+ *
+ * The image is shrunk to 9x8 grey pixels and every bit records whether a pixel
+ * is brighter than its right neighbour. Re-encoded, resized or slightly shifted
+ * copies of a photo end up within a few bits of each other.
+ */
+public final class ImageHash {
+    static final int WIDTH = 9;
+    static final int HEIGHT = 8;
+
+    private ImageHash() {
+    }
+
+    public static long dHash(Bitmap bitmap) {
+        Bitmap small = Bitmap.createScaledBitmap(bitmap, WIDTH, HEIGHT, true);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        small.getPixels(pixels, 0, WIDTH, 0, 0, WIDTH, HEIGHT);
+        if (small != bitmap) {
+            small.recycle();
+        }
+        return dHash(pixels);
+    }
+
+    /**
+     * Hash 9x8 ARGB pixels, row by row.
+     */
+    static long dHash(int[] pixels) {
+        long hash = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH - 1; x++) {
+                int left = luminance(pixels[y * WIDTH + x]);
+                int right = luminance(pixels[y * WIDTH + x + 1]);
+                hash = (hash << 1) | (left > right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Number of differing bits between two hashes.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static int luminance(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+}
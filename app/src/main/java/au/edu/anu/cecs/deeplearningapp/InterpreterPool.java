@@ -0,0 +1,109 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of runners that share one model, handed out to whichever caller
+ * asks next.
+ *
+ * Every interpreter maps the same model buffer, so extra interpreters only cost
+ * their tensor arena. run() blocks until one of them is free.
+ */
+public class InterpreterPool implements BatchRunner {
+    public static final int DEFAULT_NUM_THREADS = 1;
+
+    /**
+     * Creates the runners of the pool.
+     */
+    public interface Factory {
+        BatchRunner create();
+    }
+
+    private final List<BatchRunner> runners;
+    private final BlockingQueue<BatchRunner> idle;
+
+    public InterpreterPool(int size, Factory factory) {
+        runners = new ArrayList<>(size);
+        idle = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            BatchRunner runner = factory.create();
+            runners.add(runner);
+            idle.add(runner);
+        }
+    }
+
+    /**
+     * Create a pool of interpreters sized for this device.
+     */
+    public static InterpreterPool create(ByteBuffer model) {
+        return create(model, defaultSize(DEFAULT_NUM_THREADS), DEFAULT_NUM_THREADS, true);
+    }
+
+    /**
+     * Create a pool of interpreters over one model buffer.
+     *
+     * @param size       number of interpreters
+     * @param numThreads threads used by each interpreter
+     * @param useXnnpack whether to run float ops through the XNNPACK delegate
+     */
+    public static InterpreterPool create(final ByteBuffer model, int size,
+                                         final int numThreads, final boolean useXnnpack) {
+        return new InterpreterPool(size, () -> {
+            Interpreter.Options options = new Interpreter.Options()
+                    .setNumThreads(numThreads)
+                    .setUseXNNPACK(useXnnpack);
+            return new InterpreterRunner(model, options);
+        });
+    }
+
+    /**
+     * Leave one core for the UI thread and split the rest between interpreters.
+     */
+    public static int defaultSize(int numThreads) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, (cores - 1) / Math.max(1, numThreads));
+    }
+
+    public int size() {
+        return runners.size();
+    }
+
+    @Override
+    public void run(int[][] tokens, int count, float[][] scores) {
+        BatchRunner runner;
+        try {
+            runner = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an interpreter", e);
+        }
+        try {
+            runner.run(tokens, count, scores);
+        } finally {
+            idle.add(runner);
+        }
+    }
+
+    /**
+     * Run the batch once on every runner, e.g. to allocate their tensors before
+     * the pool is used. Must not be called while the pool is in use.
+     */
+    public void runOnEach(int[][] tokens, int count, float[][] scores) {
+        for (BatchRunner runner : runners) {
+            runner.run(tokens, count, scores);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (BatchRunner runner : runners) {
+            runner.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A BatchRunner backed by a TensorFlow Lite interpreter.
+ *
+ * The input tensor is resized to the batch size, so a whole batch is classified
+ * by a single interpreter invocation. If the model cannot be resized the rows
+ * are run one by one instead.
+ */
+public class InterpreterRunner implements BatchRunner {
+    private final Interpreter interpreter;
+    private boolean batched = true;
+    private int[][][] inputs;
+    private float[][][] outputs;
+    // Single rows when the model cannot be batched
+    private final int[][] rowInput = new int[1][];
+    private final float[][] rowOutput = new float[1][];
+
+    public InterpreterRunner(ByteBuffer model) {
+        this(model, new Interpreter.Options());
+    }
+
+    public InterpreterRunner(ByteBuffer model, Interpreter.Options options) {
+        interpreter = new Interpreter(model, options);
+    }
+
+    @Override
+    public void run(int[][] tokens, int count, float[][] scores) {
+        if (batched) {
+            try {
+                interpreter.run(inputView(tokens, count), outputView(scores, count));
+                return;
+            } catch (IllegalArgumentException e) {
+                Log.w("InterpreterRunner", "Model does not support batching", e);
+                batched = false;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            rowInput[0] = tokens[i];
+            rowOutput[0] = scores[i];
+            interpreter.run(rowInput, rowOutput);
+        }
+    }
+
+    @Override
+    public void close() {
+        interpreter.close();
+    }
+
+    /**
+     * The interpreter infers the batch size from the outer array, so keep one
+     * array of row references per batch size instead of copying the rows.
+     */
+    private int[][] inputView(int[][] tokens, int count) {
+        if (inputs == null || inputs.length < tokens.length + 1) {
+            inputs = new int[tokens.length + 1][][];
+        }
+        int[][] view = inputs[count];
+        if (view == null || view.length == 0 || view[0] != tokens[0]) {
+            view = new int[count][];
+            System.arraycopy(tokens, 0, view, 0, count);
+            inputs[count] = view;
+        }
+        return view;
+    }
+
+    private float[][] outputView(float[][] scores, int count) {
+        if (outputs == null || outputs.length < scores.length + 1) {
+            outputs = new float[scores.length + 1][][];
+        }
+        float[][] view = outputs[count];
+        if (view == null || view.length == 0 || view[0] != scores[0]) {
+            view = new float[count][];
+            System.arraycopy(scores, 0, view, 0, count);
+            outputs[count] = view;
+        }
+        return view;
+    }
+}
@@ -1,59 +1,141 @@
 package au.edu.anu.cecs.deeplearningapp;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.RecyclerView;
 
+import android.app.ActivityManager;
+import android.content.ClipData;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
-import android.util.Base64;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.ScrollView;
 import android.widget.TextView;
 
-import com.google.android.gms.tasks.Continuation;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
 import com.google.firebase.functions.FirebaseFunctions;
-import com.google.firebase.functions.HttpsCallableResult;
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.google.gson.JsonPrimitive;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LandmarkActivity extends AppCompatActivity {
+    // Optional intent extras overriding the size and quality of the uploaded image.
+    // A fixed quality turns off fitting the image to the network's byte budget.
+    public static final String EXTRA_MAX_DIMENSION = "maxDimension";
+    public static final String EXTRA_JPEG_QUALITY = "jpegQuality";
+    public static final String EXTRA_UNMETERED_MAX_BYTES = "unmeteredMaxBytes";
+    public static final String EXTRA_METERED_MAX_BYTES = "meteredMaxBytes";
+    // Optional intent extras choosing where images are recognized, see LandmarkRouter
+    public static final String EXTRA_ROUTING = "routing";
+    public static final String EXTRA_CONFIDENCE_THRESHOLD = "confidenceThreshold";
+    // Optional intent extra letting several images be picked at once. Off until
+    // the batch function below is deployed with the project's functions.
+    public static final String EXTRA_MULTIPLE_IMAGES = "multipleImages";
+    // Callable function taking a batch of images, see BatchRecognizer
+    static final String BATCH_FUNCTION = "batchAnnotateImages";
+
     private Button returnBut, analyzeBut, selectBut;
-    private TextView resultText, imgUri;
-    private ScrollView scrollView;
+    private TextView imgUri;
+    private HistoryAdapter history;
     private ImageView imageView;
     private FirebaseFunctions mFunctions;
-    private Bitmap bitmap;
+    private RecognitionPipeline pipeline;
+    private LandmarkRouter router;
+    // Routes album images like single ones, but packs their cloud calls in batches
+    private LandmarkRouter albumRouter;
+    private BatchRecognizer batchRecognizer;
+    private final ExecutorService batchExecutor = Executors.newSingleThreadExecutor();
+    // Writes cloud responses to the landmark cache off the main thread. Shared by
+    // every instance of the screen so writes queued at recreation still finish
+    private static final ExecutorService cacheWriter = Executors.newSingleThreadExecutor();
     private Uri filePath;
+    // The selected images when more than one was picked
+    private List<Uri> album;
 
     private final int PICK_IMAGE_REQUEST = 21;
 
+    private final ModelRegistry.Listener models = new ModelRegistry.Listener() {
+        @Override
+        public void onSentimentModel(SentimentBatcher batcher, String version) {
+        }
+
+        @Override
+        public void onLandmarkClassifier(LandmarkClassifier classifier) {
+            router.setClassifier(classifier);
+            albumRouter.setClassifier(classifier);
+        }
+    };
+
+    // Size of the decoded image, the one sent to Cloud Vision may be smaller
+    private int maxDimension;
+    private boolean lowMemory;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_landmark);
 
-        scrollView = findViewById(R.id.lr_scroll_view);
-        resultText = findViewById(R.id.lr_result_text);
+        // Results of earlier sessions are paged in from the history store
+        history = new HistoryAdapter(HistoryStore.getInstance(this), HistoryStore.LANDMARK);
+        history.attach((RecyclerView) findViewById(R.id.lr_history));
         imageView = findViewById(R.id.uploaded_img);
 
         // Initialize an instance of Cloud Functions:
         mFunctions = FirebaseFunctions.getInstance();
+        // Answer repeated images from the on-disk cache, which reads its directory
+        // on the recognition thread when first used
+        LandmarkRecognizer recognizer = new LandmarkRecognizer(new CallableVisionClient(mFunctions),
+                new LandmarkCache(new File(getCacheDir(), "landmarks")), cacheWriter);
+
+        maxDimension = getIntent().getIntExtra(EXTRA_MAX_DIMENSION,
+                VisionRequestEncoder.DEFAULT_MAX_DIMENSION);
+        lowMemory =
+                ((ActivityManager) getSystemService(ACTIVITY_SERVICE)).isLowRamDevice();
+
+        // Answer confident images on the device once its model is available
+        LandmarkRouter.Mode mode = routingMode(getIntent().getStringExtra(EXTRA_ROUTING));
+        float threshold = getIntent().getFloatExtra(EXTRA_CONFIDENCE_THRESHOLD,
+                LandmarkRouter.DEFAULT_THRESHOLD);
+        router = new LandmarkRouter(recognizer, mode, threshold);
+        // Album images share the cache and the in-flight calls of single images
+        batchRecognizer = new BatchRecognizer(new CallableVisionClient(mFunctions, BATCH_FUNCTION));
+        albumRouter = new LandmarkRouter(recognizer.withClient(batchRecognizer), mode, threshold);
+        if (mode != LandmarkRouter.Mode.CLOUD) {
+            // Loaded and warmed up at startup, see ModelRegistry
+            ModelRegistry.getInstance().addListener(models);
+        }
+
+        // Decode, encode and parse off the main thread, dropping superseded images
+        pipeline = new RecognitionPipeline(this, getContentResolver(), router,
+                maxDimension, payloadEncoder(), lowMemory, new RecognitionPipeline.Listener() {
+            @Override
+            public void onImageDecoded(Bitmap bitmap) {
+                imageView.setImageBitmap(bitmap);
+            }
+
+            @Override
+            public void onResult(String description, LandmarkRouter.Route route) {
+                // Task completed successfully
+                Log.d("Recognize", "Success (" + route + ")");
+                history.add(route == LandmarkRouter.Route.DEVICE
+                        ? "Recognized on the device\n" + description : description);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                // Task failed with an exception
+                Log.d("Recognize", "Failure", e);
+            }
+        });
 
         // Select an image to analyze
         selectBut = findViewById(R.id.select_image);
@@ -79,14 +161,32 @@ public class LandmarkActivity extends AppCompatActivity {
         // Recognize landmarks in the provided image
         analyzeBut = findViewById(R.id.lr_analyze_button);
         analyzeBut.setOnClickListener((View v) -> {
-            try {
-                recognize();
-            } catch (IOException e) {
-                e.printStackTrace();
+            if (album != null) {
+                recognizeAlbum(album);
+            } else {
+                pipeline.recognize();
             }
         });
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Don't lose the latest results if the process is killed in the background
+        HistoryStore.getInstance(this).flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        batchExecutor.shutdownNow();
+        batchRecognizer.close();
+        ModelRegistry.getInstance().removeListener(models);
+        // The classifier is shared, so it is left open
+        router.setClassifier(null);
+        albumRouter.setClassifier(null);
+    }
+
     /**
      * Select Image from user's Phone.
      */
@@ -95,6 +195,9 @@ public class LandmarkActivity extends AppCompatActivity {
         Intent intent = new Intent();
         intent.setType("image/*");
         intent.setAction(Intent.ACTION_GET_CONTENT);
+        // Several images are recognized as a batch
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE,
+                getIntent().getBooleanExtra(EXTRA_MULTIPLE_IMAGES, false));
         startActivityForResult(
                 Intent.createChooser(
                         intent,
@@ -121,94 +224,156 @@ public class LandmarkActivity extends AppCompatActivity {
         if (requestCode == PICK_IMAGE_REQUEST
                 && resultCode == RESULT_OK
                 && data != null
-                && data.getData() != null) {
+                && (data.getData() != null || data.getClipData() != null)) {
+            // Multiple images come as clip data, a single one may come either way
+            List<Uri> uris = new ArrayList<>();
+            ClipData clipData = data.getClipData();
+            if (clipData != null) {
+                for (int i = 0; i < clipData.getItemCount(); i++) {
+                    uris.add(clipData.getItemAt(i).getUri());
+                }
+            } else {
+                uris.add(data.getData());
+            }
+
             // Get the Uri of data
-            filePath = data.getData();
-            imgUri.setText(filePath.toString());
+            filePath = uris.get(0);
+            album = uris.size() > 1 ? uris : null;
+            imgUri.setText(album != null ? uris.size() + " images selected" : filePath.toString());
 
-            try {
-                // Get the image as a Bitmap object
-                bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), filePath);
-                imageView.setImageBitmap(bitmap);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // Decode the image at the upload size off the main thread
+            pipeline.select(filePath);
         }
     }
 
-    private void recognize() throws IOException {
-        if (bitmap == null) {
-            return;
+    /**
+     * The routing mode named by the intent, or hybrid if it names none.
+     */
+    private static LandmarkRouter.Mode routingMode(String routing) {
+        if (routing == null) {
+            return LandmarkRouter.Mode.HYBRID;
+        }
+        try {
+            return LandmarkRouter.Mode.valueOf(routing.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            Log.w("LandmarkActivity", "Unknown routing " + routing + ", using hybrid");
+            return LandmarkRouter.Mode.HYBRID;
+        }
+    }
+
+    /**
+     * An encoder fitting images to the byte budget of the network in use, unless
+     * the intent asks for a fixed quality.
+     */
+    private AdaptiveImageEncoder payloadEncoder() {
+        AdaptiveImageEncoder encoder = new AdaptiveImageEncoder(this);
+        for (AdaptiveImageEncoder.Network network : AdaptiveImageEncoder.Network.values()) {
+            AdaptiveImageEncoder.Budget budget = encoder.getBudget(network);
+            String bytesExtra = network == AdaptiveImageEncoder.Network.METERED
+                    ? EXTRA_METERED_MAX_BYTES : EXTRA_UNMETERED_MAX_BYTES;
+            if (getIntent().hasExtra(EXTRA_JPEG_QUALITY)) {
+                budget = AdaptiveImageEncoder.Budget.fixed(maxDimension,
+                        getIntent().getIntExtra(EXTRA_JPEG_QUALITY,
+                                VisionRequestEncoder.DEFAULT_JPEG_QUALITY));
+            } else {
+                budget = new AdaptiveImageEncoder.Budget(
+                        Math.min(budget.maxDimension, maxDimension),
+                        getIntent().getIntExtra(bytesExtra, budget.maxBytes),
+                        budget.minQuality, budget.maxQuality, budget.format);
+            }
+            encoder.setBudget(network, budget);
         }
-        // Scale down bitmap size
-        bitmap = scaleBitmapDown(bitmap, 640);
-
-        // Convert bitmap to base64 encoded string
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.JPEG, 100, byteArrayOutputStream);
-        byte[] imageBytes = byteArrayOutputStream.toByteArray();
-        String base64encoded = Base64.encodeToString(imageBytes, Base64.NO_WRAP);
-
-        // Create json request to cloud vision
-        JsonObject request = new JsonObject();
-        // Add image to request
-        JsonObject image = new JsonObject();
-        image.add("content", new JsonPrimitive(base64encoded));
-        request.add("image", image);
-        //Add features to the request
-        JsonObject feature = new JsonObject();
-        feature.add("maxResults", new JsonPrimitive(5));
-        feature.add("type", new JsonPrimitive("LANDMARK_DETECTION"));
-        JsonArray features = new JsonArray();
-        features.add(feature);
-        request.add("features", features);
-
-        annotateImage(request.toString())
-                .addOnCompleteListener(new OnCompleteListener<JsonElement>() {
+        return encoder;
+    }
+
+    /**
+     * Recognize every selected image like a single one, from the cache, the device
+     * or the cloud, with the cloud calls packed several images per call.
+     */
+    private void recognizeAlbum(final List<Uri> uris) {
+        // Only used on the batch thread
+        final AdaptiveImageEncoder payloadEncoder = payloadEncoder();
+        final int total = uris.size();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final long start = SystemClock.elapsedRealtime();
+        batchExecutor.execute(() -> {
+            for (int i = 0; i < total && !Thread.currentThread().isInterrupted(); i++) {
+                final int index = i;
+                LandmarkRouter.Callback callback = new LandmarkRouter.Callback() {
                     @Override
-                    public void onComplete(@NonNull Task<JsonElement> task) {
-                        if (!task.isSuccessful()) {
-                            // Task failed with an exception
-                            Log.d("Recognize", "Failure", task.getException());
-                        } else {
-                            // Task completed successfully
-                            Log.d("Recognize", "Success");
-                            StringBuilder result = new StringBuilder();
-
-                            for (JsonElement label : task.getResult().getAsJsonArray().get(0).getAsJsonObject().get("landmarkAnnotations").getAsJsonArray()) {
-                                JsonObject labelObj = label.getAsJsonObject();
-                                String landmarkName = labelObj.get("description").getAsString();
-                                String entityId = labelObj.get("mid").getAsString();
-                                float score = labelObj.get("score").getAsFloat();
-
-                                result.append("Prediction ---\n")
-                                        .append("Description: " + landmarkName + "\n")
-                                        .append("Entity ID: " + entityId + "\n")
-                                        .append("Prediction Score: " + score + "\n");
-
-                                JsonObject bounds = labelObj.get("boundingPoly").getAsJsonObject();
-                                // Multiple locations are possible, e.g., the location of the depicted
-                                // landmark and the location the picture was taken.
-                                JsonElement loc = labelObj.get("locations").getAsJsonArray().get(0);
-                                JsonObject latLng = loc.getAsJsonObject().get("latLng").getAsJsonObject();
-                                double latitude = latLng.get("latitude").getAsDouble();
-                                double longitude = latLng.get("longitude").getAsDouble();
-
-                                result.append("Latitude: " + latitude + "\n")
-                                        .append("Longitude: " + longitude + "\n");
-                                result.append("\n");
-                                // Only use the top prediction
-                                break;
-                            }
-
-                            resultText.setText(result.toString());
-                        }
+                    public void onResult(Object data, LandmarkRouter.Route route) {
+                        final String description = VisionResponseParser.describe(
+                                VisionResponseParser.parse(data, 1));
+                        runOnUiThread(() -> history.add("Image " + (index + 1) + "\n"
+                                + (route == LandmarkRouter.Route.DEVICE
+                                ? "Recognized on the device\n" : "") + description));
+                        albumProgress(done.incrementAndGet(), total, failed, start);
                     }
-                });
+
+                    @Override
+                    public void onFailure(Exception e) {
+                        Log.d("Recognize", "Failure on image " + (index + 1), e);
+                        runOnUiThread(() -> history.add("Image " + (index + 1) + " failed\n\n"));
+                        failed.incrementAndGet();
+                        albumProgress(done.incrementAndGet(), total, failed, start);
+                    }
+                };
+                final Bitmap bitmap;
+                try {
+                    bitmap = BitmapDecoder.decode(getContentResolver(), uris.get(index),
+                            maxDimension, lowMemory);
+                } catch (Exception e) {
+                    callback.onFailure(e);
+                    continue;
+                }
+                recognizeDecoded(albumRouter, bitmap, maxDimension, payloadEncoder, callback);
+            }
+            // Send the images packed so far
+            batchRecognizer.flush();
+        });
+    }
+
+    /**
+     * Scale a decoded album image and recognize it through the router, recycling
+     * the bitmaps once the router is done with them. The router classifies the
+     * image and builds the request before it returns, unless neither is needed.
+     */
+    static void recognizeDecoded(LandmarkRouter router, Bitmap bitmap, int maxDimension,
+                                 AdaptiveImageEncoder payloadEncoder,
+                                 LandmarkRouter.Callback callback) {
+        final Bitmap scaled;
+        try {
+            scaled = scaleBitmapDown(bitmap, maxDimension);
+        } catch (RuntimeException e) {
+            bitmap.recycle();
+            callback.onFailure(e);
+            return;
+        }
+        // Already at the upload size, scaling returned the decoded bitmap itself
+        if (scaled != bitmap) {
+            bitmap.recycle();
+        }
+        try {
+            router.recognize(scaled, ImageHash.dHash(scaled), () -> payloadEncoder.encode(
+                    scaled, VisionRequestEncoder.DEFAULT_MAX_RESULTS), callback);
+        } finally {
+            scaled.recycle();
+        }
+    }
+
+    private void albumProgress(int done, int total, AtomicInteger failed, long start) {
+        runOnUiThread(() -> imgUri.setText(done + " / " + total + " images recognized"));
+        if (done == total) {
+            long elapsedMs = SystemClock.elapsedRealtime() - start;
+            Log.d("Recognize", "Album of " + total + " images, " + failed.get() + " failed, in "
+                    + elapsedMs + " ms (" + total * 1000f / Math.max(1, elapsedMs)
+                    + " images/s)");
+        }
     }
 
     /** scale down the image to save on bandwidth **/
-    private Bitmap scaleBitmapDown(Bitmap bitmap, int maxDimension) {
+    static Bitmap scaleBitmapDown(Bitmap bitmap, int maxDimension) {
         int originalWidth = bitmap.getWidth();
         int originalHeight = bitmap.getHeight();
         int resizedWidth = maxDimension;
@@ -226,19 +391,4 @@ public class LandmarkActivity extends AppCompatActivity {
         }
         return Bitmap.createScaledBitmap(bitmap, resizedWidth, resizedHeight, false);
     }
-
-    private Task<JsonElement> annotateImage(String requestJson) {
-        return mFunctions
-                .getHttpsCallable("annotateImage")
-                .call(requestJson)
-                .continueWith(new Continuation<HttpsCallableResult, JsonElement>() {
-                    @Override
-                    public JsonElement then(@NonNull Task<HttpsCallableResult> task) {
-                        // This continuation runs on either success or failure, but if the task
-                        // has failed then getResult() will throw an Exception which will be
-                        // propagated down.
-                        return JsonParser.parseString(new Gson().toJson(task.getResult().getData()));
-                    }
-                });
-    }
 }
\ No newline at end of file
@@ -0,0 +1,241 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An on-disk cache of Cloud Vision responses keyed by the perceptual hash of the
+ * image.
+ *
+ * A lookup matches any entry whose hash is within a few bits of the image, so
+ * near-duplicates hit as well. Each entry is one JSON file named after its hash
+ * and creation time. The cache keeps at most maxBytes of responses, evicting the
+ * least recently used entry first, and ignores entries older than the TTL.
+ *
+ * The files of earlier runs are only indexed on first use, so creating a cache
+ * on the main thread does not touch the disk.
+ */
+public class LandmarkCache {
+    public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+    public static final long DEFAULT_TTL_MS = TimeUnit.DAYS.toMillis(7);
+    public static final int DEFAULT_MAX_DISTANCE = 4;
+
+    /**
+     * Source of the current time, replaceable in tests.
+     */
+    public interface Clock {
+        long now();
+    }
+
+    private static final class Entry {
+        final long hash;
+        final long createdAt;
+        final File file;
+
+        Entry(long hash, long createdAt, File file) {
+            this.hash = hash;
+            this.createdAt = createdAt;
+            this.file = file;
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Gson GSON = new Gson();
+
+    private final File directory;
+    private final long maxBytes;
+    private final long ttlMs;
+    private final int maxDistance;
+    private final Clock clock;
+    // Access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private boolean loaded;
+    private long totalBytes;
+    private long hits;
+    private long misses;
+
+    public LandmarkCache(File directory) {
+        this(directory, DEFAULT_MAX_BYTES, DEFAULT_TTL_MS, DEFAULT_MAX_DISTANCE,
+                System::currentTimeMillis);
+    }
+
+    public LandmarkCache(File directory, long maxBytes, long ttlMs, int maxDistance,
+                         Clock clock) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.ttlMs = ttlMs;
+        this.maxDistance = maxDistance;
+        this.clock = clock;
+    }
+
+    /**
+     * Return the response cached for the image or a near-duplicate of it, or null.
+     * Expired entries are dropped on the way, so they never hide a valid one.
+     */
+    public synchronized Object get(long hash) {
+        ensureLoaded();
+        Entry best = null;
+        int bestDistance = maxDistance + 1;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (isExpired(entry)) {
+                iterator.remove();
+                totalBytes -= entry.file.length();
+                entry.file.delete();
+                continue;
+            }
+            int distance = ImageHash.distance(hash, entry.hash);
+            if (distance < bestDistance) {
+                best = entry;
+                bestDistance = distance;
+            }
+        }
+        if (best == null) {
+            misses++;
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(best.file), UTF_8)) {
+            Object data = GSON.fromJson(reader, Object.class);
+            // Refresh its position in the LRU order, also for the next launch
+            entries.get(best.hash);
+            best.file.setLastModified(clock.now());
+            hits++;
+            return data;
+        } catch (IOException | RuntimeException e) {
+            Log.w("LandmarkCache", "Dropping unreadable entry " + best.file, e);
+            remove(best);
+            misses++;
+            return null;
+        }
+    }
+
+    public synchronized void put(long hash, Object data) {
+        ensureLoaded();
+        Entry previous = entries.get(hash);
+        if (previous != null) {
+            remove(previous);
+        }
+
+        long now = clock.now();
+        File file = new File(directory, String.format(Locale.ROOT, "%016x_%d.json", hash, now));
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+            GSON.toJson(data, writer);
+        } catch (IOException e) {
+            Log.w("LandmarkCache", "Failed to write " + file, e);
+            file.delete();
+            return;
+        }
+        entries.put(hash, new Entry(hash, now, file));
+        totalBytes += file.length();
+        trim();
+    }
+
+    public synchronized int size() {
+        ensureLoaded();
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+    }
+
+    /**
+     * Rebuild the index from the files left by a previous run, oldest use first.
+     */
+    private void load() {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w("LandmarkCache", "Cannot create " + directory);
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> sorted = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(".json")) {
+                sorted.add(file);
+            }
+        }
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        for (File file : sorted) {
+            String name = file.getName();
+            int split = name.indexOf('_');
+            try {
+                // Parsed in two halves, as the hash may not fit a signed long
+                long hash = Long.parseLong(name.substring(0, split - 8), 16) << 32
+                        | Long.parseLong(name.substring(split - 8, split), 16);
+                long createdAt = Long.parseLong(name.substring(split + 1, name.length() - 5));
+                Entry entry = new Entry(hash, createdAt, file);
+                if (isExpired(entry)) {
+                    file.delete();
+                } else {
+                    entries.put(hash, entry);
+                    totalBytes += file.length();
+                }
+            } catch (RuntimeException e) {
+                file.delete();
+            }
+        }
+        trim();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return clock.now() - entry.createdAt > ttlMs;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry entry = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= entry.file.length();
+            entry.file.delete();
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.hash);
+        totalBytes -= entry.file.length();
+        entry.file.delete();
+    }
+}
@@ -0,0 +1,216 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recognizes landmarks on the device with a TFLite image classification model.
+ *
+ * The model takes one RGB image, as uint8 or as float32 in [0, 1], and returns
+ * one score per label; the labels are packed into the model as labels.txt. The
+ * resized image, its pixels and the input and output buffers are allocated once,
+ * so a classification allocates nothing but its result. Calls to classify are
+ * serialized.
+ *
+ * Closing does not wait for a classification in progress: the interpreter is
+ * freed when the last running classification returns, like SentimentModel.
+ */
+public class LandmarkClassifier implements LandmarkRouter.Classifier, Closeable {
+    // Name of the model in Firebase ML
+    public static final String MODEL_NAME = "LandmarkClassifier";
+
+    /**
+     * The best label for an image and its score.
+     */
+    public static final class Prediction {
+        public final String label;
+        public final float score;
+
+        public Prediction(String label, float score) {
+            this.label = label;
+            this.score = score;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final List<String> labels;
+    private final int width;
+    private final int height;
+    private final boolean quantizedInput;
+    private final boolean quantizedOutput;
+    private final float outputScale;
+    private final int outputZeroPoint;
+    private final ByteBuffer input;
+    private final ByteBuffer output;
+    private final float[] scores;
+    private final int[] pixels;
+    private final Bitmap resized;
+    private final Canvas canvas;
+    private final Rect target;
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    // The owner's reference plus one per running classification
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    public LandmarkClassifier(ByteBuffer model, List<String> labels, int numThreads) {
+        interpreter = new Interpreter(model, new Interpreter.Options().setNumThreads(numThreads));
+        this.labels = labels;
+
+        Tensor inputTensor = interpreter.getInputTensor(0);
+        int[] shape = inputTensor.shape();
+        height = shape[1];
+        width = shape[2];
+        quantizedInput = inputTensor.dataType() == DataType.UINT8;
+        input = ByteBuffer.allocateDirect(inputTensor.numBytes()).order(ByteOrder.nativeOrder());
+
+        Tensor outputTensor = interpreter.getOutputTensor(0);
+        quantizedOutput = outputTensor.dataType() == DataType.UINT8;
+        outputScale = outputTensor.quantizationParams().getScale();
+        outputZeroPoint = outputTensor.quantizationParams().getZeroPoint();
+        output = ByteBuffer.allocateDirect(outputTensor.numBytes()).order(ByteOrder.nativeOrder());
+        scores = new float[outputTensor.numElements()];
+        if (scores.length != labels.size()) {
+            interpreter.close();
+            throw new IllegalArgumentException("Model has " + scores.length
+                    + " outputs but " + labels.size() + " labels");
+        }
+
+        pixels = new int[width * height];
+        resized = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        canvas = new Canvas(resized);
+        target = new Rect(0, 0, width, height);
+    }
+
+    public static LandmarkClassifier load(File modelFile) throws IOException {
+        ByteBuffer model = ModelMetadataReader.map(modelFile);
+        return new LandmarkClassifier(model, ModelMetadataReader.readLines(model, "labels.txt"),
+                InterpreterPool.DEFAULT_NUM_THREADS);
+    }
+
+    @Override
+    public Prediction classify(Bitmap image) {
+        if (closed.get() || !acquire()) {
+            throw new IllegalStateException("Classifier is closed");
+        }
+        try {
+            synchronized (this) {
+                // Stretch the image to the model's input size without allocating
+                canvas.drawBitmap(image, null, target, paint);
+                resized.getPixels(pixels, 0, width, 0, 0, width, height);
+                input.clear();
+                fillInput(pixels, input, quantizedInput);
+                input.rewind();
+                output.clear();
+                interpreter.run(input, output);
+                output.rewind();
+                readScores(output, scores, quantizedOutput, outputScale, outputZeroPoint);
+                int best = argMax(scores);
+                return new Prediction(labels.get(best), scores[best]);
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Drop the owner's reference. The interpreter is freed now, or once the
+     * classification in progress returns.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            release();
+        }
+    }
+
+    public boolean isClosed() {
+        return references.get() == 0;
+    }
+
+    private boolean acquire() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        if (references.decrementAndGet() == 0) {
+            interpreter.close();
+            resized.recycle();
+        }
+    }
+
+    /**
+     * The prediction in the shape of a Cloud Vision landmark response, so both
+     * are shown the same way.
+     */
+    public static Object toResponse(Prediction prediction) {
+        Map<String, Object> landmark = new HashMap<>();
+        landmark.put("mid", "");
+        landmark.put("description", prediction.label);
+        landmark.put("score", (double) prediction.score);
+        landmark.put("locations", new ArrayList<>());
+        return Collections.singletonList(Collections.singletonMap("landmarkAnnotations",
+                Collections.singletonList(landmark)));
+    }
+
+    /**
+     * Write ARGB pixels as RGB, one byte per channel or as floats in [0, 1].
+     */
+    static void fillInput(int[] pixels, ByteBuffer input, boolean quantized) {
+        for (int pixel : pixels) {
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            if (quantized) {
+                input.put((byte) r).put((byte) g).put((byte) b);
+            } else {
+                input.putFloat(r / 255f).putFloat(g / 255f).putFloat(b / 255f);
+            }
+        }
+    }
+
+    static void readScores(ByteBuffer output, float[] scores, boolean quantized,
+                           float scale, int zeroPoint) {
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = quantized
+                    ? ((output.get() & 0xFF) - zeroPoint) * scale
+                    : output.getFloat();
+        }
+    }
+
+    static int argMax(float[] scores) {
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,135 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.util.Log;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Recognizes landmarks through Cloud Vision, answering repeated and
+ * near-duplicate images from the LandmarkCache.
+ *
+ * Calls for an image whose request is still in flight join that request, so
+ * tapping analyze on the same picture again does not upload it twice.
+ *
+ * Responses are written to the cache on the cache writer, so the disk write
+ * never runs on the main thread the cloud answers on, nor delays the result.
+ */
+public class LandmarkRecognizer {
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("landmark.cache.hits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("landmark.cache.misses");
+    private static final Metrics.Counter CALL_FAILURES = Metrics.counter("recognize.call.failures");
+    private static final LatencyHistogram CALL_TIME = Metrics.histogram("recognize.call");
+
+    /**
+     * Receives the response data of a recognition, or the failure.
+     */
+    public interface Callback {
+        void onResult(Object data, boolean cached);
+
+        void onFailure(Exception e);
+    }
+
+    private final VisionClient client;
+    private final LandmarkCache cache;
+    private final Executor cacheWriter;
+    private final SingleFlight<Long, Object> inFlight;
+
+    /**
+     * A recognizer writing responses to the cache on the thread that receives them.
+     */
+    public LandmarkRecognizer(VisionClient client, LandmarkCache cache) {
+        this(client, cache, Runnable::run);
+    }
+
+    public LandmarkRecognizer(VisionClient client, LandmarkCache cache, Executor cacheWriter) {
+        this(client, cache, cacheWriter, new SingleFlight<Long, Object>("landmark"));
+    }
+
+    private LandmarkRecognizer(VisionClient client, LandmarkCache cache, Executor cacheWriter,
+                               SingleFlight<Long, Object> inFlight) {
+        this.client = client;
+        this.cache = cache;
+        this.cacheWriter = cacheWriter;
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * A recognizer sending its calls through another client, e.g. a
+     * BatchRecognizer, that shares this one's cache and in-flight requests.
+     */
+    public LandmarkRecognizer withClient(VisionClient other) {
+        return new LandmarkRecognizer(other, cache, cacheWriter, inFlight);
+    }
+
+    /**
+     * Recognize the image with the given perceptual hash. The request is only
+     * built when the cache cannot answer.
+     */
+    public void recognize(final long imageHash, Callable<String> request, final Callback callback) {
+        Object cached = lookup(imageHash);
+        if (cached != null) {
+            callback.onResult(cached, true);
+            return;
+        }
+        call(imageHash, request, callback);
+    }
+
+    /**
+     * Return the cached response for the image or a near-duplicate, or null.
+     */
+    public Object lookup(long imageHash) {
+        Object cached = cache.get(imageHash);
+        (cached != null ? CACHE_HITS : CACHE_MISSES).increment();
+        Log.d("LandmarkRecognizer", "Cache hits " + cache.getHits() + ", misses " + cache.getMisses());
+        return cached;
+    }
+
+    /**
+     * Send the request without looking at the cache, and cache the response. The
+     * request is not built when the same image is already being recognized.
+     */
+    public void call(final long imageHash, final Callable<String> request,
+                     final Callback callback) {
+        inFlight.execute(imageHash, new SingleFlight.Callback<Object>() {
+            @Override
+            public void onResult(Object data) {
+                callback.onResult(data, false);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                callback.onFailure(e);
+            }
+        }, (final SingleFlight.Callback<Object> done) -> {
+            String requestJson;
+            try {
+                requestJson = request.call();
+            } catch (Exception e) {
+                done.onFailure(e);
+                return;
+            }
+            final long start = Metrics.now();
+            client.annotate(requestJson, new VisionClient.Callback() {
+                @Override
+                public void onSuccess(Object data) {
+                    CALL_TIME.recordSince(start);
+                    try {
+                        cacheWriter.execute(() -> cache.put(imageHash, data));
+                    } catch (RejectedExecutionException e) {
+                        // Answered after the writer was shut down, only not cached
+                        Log.w("LandmarkRecognizer", "Response not cached", e);
+                    }
+                    done.onResult(data);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    CALL_FAILURES.increment();
+                    done.onFailure(e);
+                }
+            });
+        });
+    }
+}
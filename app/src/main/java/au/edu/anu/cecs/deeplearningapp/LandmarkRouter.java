@@ -0,0 +1,135 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides where an image is recognized: the response cache, the on-device
+ * classifier or Cloud Vision.
+ *
+ * Cached responses are used first. In hybrid mode the on-device prediction is
+ * accepted when its score reaches the threshold, otherwise the image goes to the
+ * cloud; when the cloud call fails, e.g. offline, the on-device prediction is
+ * used after all. Local mode always accepts the on-device prediction and cloud
+ * mode never runs the classifier. Until a classifier is installed every mode
+ * behaves like cloud mode.
+ */
+public class LandmarkRouter {
+    public static final float DEFAULT_THRESHOLD = 0.6f;
+    private static final LatencyHistogram DEVICE_TIME =
+            Metrics.histogram("landmark.device_inference");
+
+    public enum Mode {
+        CLOUD, LOCAL, HYBRID
+    }
+
+    /**
+     * Where a result came from.
+     */
+    public enum Route {
+        CACHE, DEVICE, CLOUD
+    }
+
+    /**
+     * Classifies an image on the device. Implemented by LandmarkClassifier.
+     */
+    public interface Classifier {
+        LandmarkClassifier.Prediction classify(Bitmap image);
+    }
+
+    /**
+     * Receives the response data (in Cloud Vision's shape) and where it came from,
+     * or the failure.
+     */
+    public interface Callback {
+        void onResult(Object data, Route route);
+
+        void onFailure(Exception e);
+    }
+
+    private final LandmarkRecognizer cloud;
+    private final Mode mode;
+    private final float threshold;
+    private volatile Classifier classifier;
+
+    public LandmarkRouter(LandmarkRecognizer cloud, Mode mode, float threshold) {
+        this.cloud = cloud;
+        this.mode = mode;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Install or replace the on-device classifier. Returns the previous one.
+     */
+    public Classifier setClassifier(Classifier next) {
+        Classifier previous = classifier;
+        classifier = next;
+        return previous;
+    }
+
+    /**
+     * Recognize a scaled image. Runs the classifier and reads the cache on the
+     * calling thread; the request is only built when the cloud is asked.
+     */
+    public void recognize(Bitmap image, final long imageHash, Callable<String> request,
+                          final Callback callback) {
+        Object cached = cloud.lookup(imageHash);
+        if (cached != null) {
+            callback.onResult(cached, Route.CACHE);
+            return;
+        }
+
+        final LandmarkClassifier.Prediction prediction = classifyLocally(image);
+        if (prediction != null && (mode == Mode.LOCAL || prediction.score >= threshold)) {
+            callback.onResult(LandmarkClassifier.toResponse(prediction), Route.DEVICE);
+            return;
+        }
+
+        final long start = System.nanoTime();
+        cloud.call(imageHash, request, new LandmarkRecognizer.Callback() {
+            @Override
+            public void onResult(Object data, boolean cached) {
+                Log.d("LandmarkRouter", "Cloud answered in " + elapsedMs(start) + " ms");
+                callback.onResult(data, Route.CLOUD);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (prediction == null) {
+                    callback.onFailure(e);
+                    return;
+                }
+                Log.w("LandmarkRouter", "Cloud failed, using the on-device prediction", e);
+                callback.onResult(LandmarkClassifier.toResponse(prediction), Route.DEVICE);
+            }
+        });
+    }
+
+    private LandmarkClassifier.Prediction classifyLocally(Bitmap image) {
+        Classifier local = classifier;
+        if (local == null || mode == Mode.CLOUD) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            LandmarkClassifier.Prediction prediction = local.classify(image);
+            DEVICE_TIME.record(System.nanoTime() - start);
+            Log.d("LandmarkRouter", String.format(Locale.ROOT,
+                    "On-device prediction %s (%.2f) in %d ms",
+                    prediction.label, prediction.score, elapsedMs(start)));
+            return prediction;
+        } catch (RuntimeException e) {
+            // E.g. the classifier was closed while being replaced
+            Log.w("LandmarkRouter", "On-device classification failed", e);
+            return null;
+        }
+    }
+
+    private static long elapsedMs(long startNs) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+    }
+}
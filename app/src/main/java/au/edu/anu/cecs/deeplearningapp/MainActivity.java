@@ -8,7 +8,7 @@ import android.view.View;
 import android.widget.Button;
 
 public class MainActivity extends AppCompatActivity {
-    private Button senAna, landmark;
+    private Button senAna, landmark, metrics;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -33,5 +33,17 @@ public class MainActivity extends AppCompatActivity {
                 startActivity(intent);
             }
         });
+
+        // Timings and counters of the models, only collected in debug builds
+        metrics = findViewById(R.id.metrics_button);
+        if (Metrics.isEnabled()) {
+            metrics.setVisibility(View.VISIBLE);
+            metrics.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    startActivity(new Intent(MainActivity.this, MetricsActivity.class));
+                }
+            });
+        }
     }
 }
\ No newline at end of file
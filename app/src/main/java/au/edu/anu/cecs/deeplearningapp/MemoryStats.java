@@ -0,0 +1,48 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.os.Build;
+import android.os.Debug;
+
+/**
+ * Reads the heap and garbage collection figures used to report the memory cost
+ * of a request.
+ */
+public final class MemoryStats {
+    private MemoryStats() {
+    }
+
+    /**
+     * Bytes currently used on the Java heap.
+     */
+    public static long heapUsed() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Number of garbage collections since the process started, or -1 if the
+     * platform does not expose it (before Android 6.0).
+     */
+    public static long gcCount() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        return runtimeStat("art.gc.gc-count");
+    }
+
+    /**
+     * Bytes allocated on the Java heap by every thread since the process started,
+     * or -1 if the platform does not expose it (before Android 6.0).
+     */
+    public static long bytesAllocated() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return -1;
+        }
+        return runtimeStat("art.gc.bytes-allocated");
+    }
+
+    private static long runtimeStat(String name) {
+        String value = Debug.getRuntimeStat(name);
+        return value == null ? -1 : Long.parseLong(value);
+    }
+}
@@ -0,0 +1,139 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The process-wide counters and latency histograms of the ML paths.
+ *
+ * Metrics are looked up by name once, usually into a static field, and then
+ * updated without locks. While disabled, which is the default, now() returns 0
+ * and updates return after reading one field, so instrumented code costs next to
+ * nothing. DeepLearningApp enables them in debuggable builds, where they can be
+ * read on the MetricsActivity screen or through dump().
+ */
+public final class Metrics {
+    /**
+     * A lock-free counter of events.
+     */
+    public static final class Counter {
+        private final String name;
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void increment() {
+            if (enabled) {
+                value.incrementAndGet();
+            }
+        }
+
+        public void add(long delta) {
+            if (enabled) {
+                value.addAndGet(delta);
+            }
+        }
+
+        public long get() {
+            return value.get();
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + value.get();
+        }
+    }
+
+    private static volatile boolean enabled;
+    // Registration order, so the dump groups the metrics of each class
+    private static final Map<String, Counter> counters = new LinkedHashMap<>();
+    private static final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The start of a duration to record with LatencyHistogram.recordSince(), or 0
+     * while disabled.
+     */
+    public static long now() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Return the counter with the given name, creating it on first use.
+     */
+    public static synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Return the histogram with the given name, creating it on first use.
+     */
+    public static synchronized LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    public static synchronized List<Counter> getCounters() {
+        return new ArrayList<>(counters.values());
+    }
+
+    public static synchronized List<LatencyHistogram> getHistograms() {
+        return new ArrayList<>(histograms.values());
+    }
+
+    /**
+     * Zero every metric. Updates racing with the reset may survive it.
+     */
+    public static synchronized void reset() {
+        for (Counter counter : counters.values()) {
+            counter.value.set(0);
+        }
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Every counter, then every histogram that recorded something, one per line.
+     */
+    public static String dump() {
+        StringBuilder dump = new StringBuilder();
+        for (Counter counter : getCounters()) {
+            dump.append(counter).append('\n');
+        }
+        for (LatencyHistogram histogram : getHistograms()) {
+            if (histogram.getCount() > 0) {
+                dump.append(histogram).append('\n');
+            }
+        }
+        return dump.toString();
+    }
+}
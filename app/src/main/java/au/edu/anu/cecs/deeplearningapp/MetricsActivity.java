@@ -0,0 +1,45 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.os.Bundle;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+/**
+ * Debug screen listing the counters and latency histograms of Metrics.
+ */
+public class MetricsActivity extends AppCompatActivity {
+    private TextView text;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        text = findViewById(R.id.metrics_text);
+        findViewById(R.id.metrics_refresh_button).setOnClickListener((View v) -> refresh());
+        findViewById(R.id.metrics_reset_button).setOnClickListener((View v) -> {
+            Metrics.reset();
+            refresh();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    private void refresh() {
+        if (!Metrics.isEnabled()) {
+            text.setText(R.string.metrics_disabled);
+            return;
+        }
+        StringBuilder dump = new StringBuilder(Metrics.dump());
+        for (ModelRegistry.WarmUp warmUp : ModelRegistry.getInstance().getWarmUps()) {
+            dump.append(warmUp).append('\n');
+        }
+        text.setText(dump);
+    }
+}
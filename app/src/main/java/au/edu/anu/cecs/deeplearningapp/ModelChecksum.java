@@ -0,0 +1,56 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Checks that a downloaded model file is the one its source announced, before
+ * it is handed to an interpreter.
+ */
+public final class ModelChecksum {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ModelChecksum() {
+    }
+
+    /**
+     * Throw if the SHA-256 of the file differs from the expected hex digest.
+     */
+    public static void verify(File modelFile, String expected) throws IOException {
+        String actual = sha256(modelFile);
+        if (!actual.equalsIgnoreCase(expected)) {
+            throw new IOException("Checksum mismatch for " + modelFile.getName()
+                    + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    /**
+     * The SHA-256 of the file's content as lower-case hex.
+     */
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = new FileInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0x0F];
+            hex[2 * i + 1] = HEX[hash[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,135 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the files packed into a .tflite model by TFLite Model Maker.
+ *
+ * The exported model is a flatbuffer followed by a zip archive that holds the
+ * associated files (vocab.txt, labels.txt). The entries are stored without
+ * compression, so they can be read straight out of the model buffer.
+ */
+public final class ModelMetadataReader {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int STORED = 0;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ModelMetadataReader() {
+    }
+
+    /**
+     * Memory-map a model file read-only.
+     */
+    public static MappedByteBuffer map(File modelFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(modelFile, "r");
+             FileChannel channel = file.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Return the lines of an associated file, or throw if the model does not contain it.
+     */
+    public static List<String> readLines(ByteBuffer model, String name) throws IOException {
+        ByteBuffer entry = findEntry(model, name);
+        byte[] bytes = new byte[entry.remaining()];
+        entry.get(bytes);
+
+        List<String> lines = new ArrayList<>();
+        String content = new String(bytes, UTF_8);
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            if (end < 0) {
+                end = content.length();
+            }
+            String line = content.substring(start, end).trim();
+            if (!line.isEmpty()) {
+                lines.add(line);
+            }
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Return a read-only view of an associated file inside the model buffer.
+     */
+    public static ByteBuffer findEntry(ByteBuffer model, String name) throws IOException {
+        ByteBuffer buffer = model.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buffer.limit();
+
+        // The end of central directory record is the last 22 bytes plus an optional comment
+        int eocd = -1;
+        for (int i = limit - 22; i >= Math.max(0, limit - 22 - 0xFFFF); i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) {
+            throw new IOException("Model has no associated files");
+        }
+
+        int entries = buffer.getShort(eocd + 10) & 0xFFFF;
+        int directorySize = buffer.getInt(eocd + 12);
+        int directoryOffset = buffer.getInt(eocd + 16);
+        // Offsets may be relative to the start of the zip rather than the start of the model
+        int shift = eocd - directorySize - directoryOffset;
+
+        int position = directoryOffset + shift;
+        byte[] wanted = name.getBytes(UTF_8);
+        for (int i = 0; i < entries; i++) {
+            if (buffer.getInt(position) != CENTRAL_DIRECTORY_HEADER) {
+                throw new IOException("Corrupted model metadata");
+            }
+            int method = buffer.getShort(position + 10) & 0xFFFF;
+            int size = buffer.getInt(position + 20);
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            int headerOffset = buffer.getInt(position + 42) + shift;
+
+            if (nameMatches(buffer, position + 46, nameLength, wanted)) {
+                if (method != STORED) {
+                    throw new IOException(name + " is compressed in the model");
+                }
+                if (buffer.getInt(headerOffset) != LOCAL_FILE_HEADER) {
+                    throw new IOException("Corrupted model metadata");
+                }
+                int dataOffset = headerOffset + 30
+                        + (buffer.getShort(headerOffset + 26) & 0xFFFF)
+                        + (buffer.getShort(headerOffset + 28) & 0xFFFF);
+                ByteBuffer entry = buffer.duplicate();
+                entry.position(dataOffset);
+                entry.limit(dataOffset + size);
+                return entry.slice();
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        throw new IOException("Model does not contain " + name);
+    }
+
+    private static boolean nameMatches(ByteBuffer buffer, int offset, int length, byte[] wanted) {
+        if (length != wanted.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(offset + i) != wanted[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,406 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The models of the process, loaded and warmed up once at startup and shared
+ * by every screen.
+ *
+ * The bundled sentiment model is loaded first, then replaced by the downloaded
+ * one, and the on-device landmark model is installed once it is downloaded.
+ * Once the model on the device is installed, the newest version is fetched and
+ * swapped in while the app runs; checkForUpdates() looks again.
+ * When several variants of the sentiment model are bundled, the first start
+ * benchmarks them with SentimentVariantSelector and later starts load the
+ * chosen one straight away.
+ *
+ * Before a model is handed out it runs a dummy inference on each of its
+ * interpreters, so their tensors are allocated and the first real
+ * classification is as fast as the ones after it. The latency of the cold and
+ * the warm dummy inference is logged under the "ModelRegistry" tag and recorded
+ * in the model.* Metrics, along with how long each download took.
+ *
+ * Every downloaded file must match the SHA-256 its source announced and is
+ * skipped if that version is already installed. Loading happens on a
+ * background thread. Installing a model swaps it in for the previous one, which
+ * is closed once the inferences still running on it finish, so its native
+ * memory is freed rather than leaked.
+ *
+ * Listeners and getters must be used on the main thread.
+ */
+public class ModelRegistry {
+    // Texts the sentiment variants are compared on, exported by the training notebook
+    private static final String HOLDOUT_ASSET = "sentiment_holdout.txt";
+
+    /**
+     * Told on the main thread whenever a model is installed or replaced.
+     */
+    public interface Listener {
+        void onSentimentModel(SentimentBatcher batcher, String version);
+
+        void onLandmarkClassifier(LandmarkClassifier classifier);
+    }
+
+    /**
+     * How long loading a model and its first and second inference took.
+     */
+    public static final class WarmUp {
+        public final String model;
+        public final long loadMs;
+        public final double coldMs;
+        public final double warmMs;
+
+        WarmUp(String model, long loadMs, double coldMs, double warmMs) {
+            this.model = model;
+            this.loadMs = loadMs;
+            this.coldMs = coldMs;
+            this.warmMs = warmMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s: loaded in %d ms, cold inference %.1f ms, warm inference %.1f ms",
+                    model, loadMs, coldMs, warmMs);
+        }
+    }
+
+    private static ModelRegistry instance;
+
+    private final ModelSource source;
+    private final Handler main = new Handler(Looper.getMainLooper());
+    // Loads and warms up models one at a time
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final List<Listener> listeners = new ArrayList<>();
+    private final List<WarmUp> warmUps = new ArrayList<>();
+    private SentimentBatcher sentimentBatcher;
+    private String sentimentVersion;
+    private LandmarkClassifier landmarkClassifier;
+    private boolean started;
+    // The bundled variant whose downloads are used
+    private volatile SentimentVariant sentimentVariant;
+    // Hash of the installed version of each downloaded model, only used by the loader
+    private final HashMap<String, String> installedHashes = new HashMap<>();
+
+    public static synchronized ModelRegistry getInstance() {
+        if (instance == null) {
+            instance = new ModelRegistry(new FirebaseModelSource());
+        }
+        return instance;
+    }
+
+    ModelRegistry(ModelSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Start loading every model in the background. Does nothing if already started.
+     */
+    public void start(Context context) {
+        if (started) {
+            return;
+        }
+        started = true;
+        final Context app = context.getApplicationContext();
+        loader.execute(() -> {
+            List<SentimentVariant> variants = SentimentVariant.available(app);
+            SharedPreferences preferences = app.getSharedPreferences(
+                    SentimentVariantSelector.PREFERENCES, Context.MODE_PRIVATE);
+            SentimentVariant chosen = SentimentVariantSelector.restore(preferences, variants);
+            SentimentVariant variant = chosen != null ? chosen : SentimentVariant.FLOAT32;
+            loadBundled(app, variant);
+            if (chosen == null && variants.size() > 1) {
+                // Analysis can start on the float model while the variants are compared
+                SentimentVariant selected = selectVariant(app, variants);
+                SentimentVariantSelector.save(preferences, variants, selected);
+                if (selected != variant) {
+                    variant = selected;
+                    loadBundled(app, variant);
+                }
+            }
+            sentimentVariant = variant;
+            downloadSentiment(variant, false);
+        });
+        downloadLandmarkClassifier(false);
+    }
+
+    /**
+     * Fetch the newest version of every model and swap in those that changed.
+     * Does nothing before start().
+     */
+    public void checkForUpdates() {
+        SentimentVariant variant = sentimentVariant;
+        if (variant != null) {
+            downloadSentiment(variant, true);
+        }
+        if (started) {
+            downloadLandmarkClassifier(true);
+        }
+    }
+
+    public SentimentBatcher getSentimentBatcher() {
+        return sentimentBatcher;
+    }
+
+    public LandmarkClassifier getLandmarkClassifier() {
+        return landmarkClassifier;
+    }
+
+    /**
+     * Timings of every model warmed up so far, oldest first.
+     */
+    public List<WarmUp> getWarmUps() {
+        return new ArrayList<>(warmUps);
+    }
+
+    /**
+     * Add a listener and tell it at once about the models already installed.
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+        if (sentimentBatcher != null) {
+            listener.onSentimentModel(sentimentBatcher, sentimentVersion);
+        }
+        if (landmarkClassifier != null) {
+            listener.onLandmarkClassifier(landmarkClassifier);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    private void loadBundled(Context context, SentimentVariant variant) {
+        try {
+            long start = System.nanoTime();
+            SentimentModel model = SentimentModel.loadBundled(context, variant);
+            installSentiment(model, warmUp(model, start));
+        } catch (IOException | RuntimeException e) {
+            Log.e("ModelRegistry", "Failed to load the bundled sentiment model " + variant, e);
+        }
+    }
+
+    /**
+     * Benchmark the bundled variants on the held-out texts and return the one to use.
+     */
+    private SentimentVariant selectVariant(Context context, List<SentimentVariant> variants) {
+        List<String> texts = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                context.getAssets().open(HOLDOUT_ASSET), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                texts.add(line);
+            }
+        } catch (IOException e) {
+            Log.w("ModelRegistry", "No held-out texts, using the float model", e);
+            return SentimentVariant.FLOAT32;
+        }
+
+        List<SentimentVariantSelector.Candidate> candidates = new ArrayList<>();
+        try {
+            for (SentimentVariant variant : variants) {
+                try {
+                    long nativeBefore = Debug.getNativeHeapAllocatedSize();
+                    long start = System.nanoTime();
+                    ByteBuffer buffer = SentimentModel.mapAsset(context, variant.asset);
+                    SentimentModel model = new SentimentModel(SentimentTokenizer.fromModel(buffer),
+                            new InterpreterRunner(buffer), variant.bundledVersion());
+                    // Counts the tensor arena, which is allocated by the first inference
+                    warmUp(model, start);
+                    candidates.add(new SentimentVariantSelector.Candidate(variant, model,
+                            buffer.capacity() + Debug.getNativeHeapAllocatedSize() - nativeBefore));
+                } catch (IOException | RuntimeException e) {
+                    Log.w("ModelRegistry", "Cannot run the sentiment model " + variant, e);
+                }
+            }
+            if (candidates.isEmpty() || candidates.get(0).variant != SentimentVariant.FLOAT32) {
+                return SentimentVariant.FLOAT32;
+            }
+
+            SentimentVariantSelector selector = new SentimentVariantSelector();
+            List<SentimentVariantSelector.Measurement> measurements =
+                    selector.measure(candidates, texts);
+            for (SentimentVariantSelector.Measurement measurement : measurements) {
+                Log.d("ModelRegistry", measurement.toString());
+            }
+            SentimentVariant chosen = selector.choose(measurements);
+            Log.d("ModelRegistry", "Using the sentiment model " + chosen);
+            return chosen;
+        } finally {
+            for (SentimentVariantSelector.Candidate candidate : candidates) {
+                candidate.model.release();
+            }
+        }
+    }
+
+    private void downloadSentiment(SentimentVariant variant, boolean latest) {
+        download(variant.firebaseName(), latest, (File modelFile, String version) -> {
+            long start = System.nanoTime();
+            SentimentModel model = SentimentModel.loadFile(modelFile, version);
+            installSentiment(model, warmUp(model, start));
+        });
+    }
+
+    private void downloadLandmarkClassifier(boolean latest) {
+        download(LandmarkClassifier.MODEL_NAME, latest, (File modelFile, String version) -> {
+            long start = System.nanoTime();
+            LandmarkClassifier classifier = LandmarkClassifier.load(modelFile);
+            installLandmark(classifier, warmUp(classifier, start));
+        });
+    }
+
+    private interface Loader {
+        void load(File modelFile, String version) throws IOException;
+    }
+
+    /**
+     * Get a model from the source and install it on the loader thread. After the
+     * version on the device, the newest one is fetched.
+     */
+    private void download(final String name, final boolean latest, final Loader load) {
+        final long start = Metrics.now();
+        source.getModel(name, latest, new ModelSource.Callback() {
+            @Override
+            public void onModel(final File modelFile, final String hash) {
+                Metrics.histogram("model." + name + ".download").recordSince(start);
+                loader.execute(() -> {
+                    update(name, modelFile, hash, load);
+                    if (!latest) {
+                        download(name, true, load);
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Metrics.counter("model." + name + ".download_failures").increment();
+                Log.w("ModelRegistry", "Failed to download " + name, e);
+            }
+        });
+    }
+
+    /**
+     * Verify and load a model file unless its version is already installed.
+     * Runs on the loader thread.
+     */
+    private void update(String name, File modelFile, String hash, Loader load) {
+        if (hash != null && hash.equals(installedHashes.get(name))) {
+            return;
+        }
+        try {
+            ModelChecksum.verify(modelFile, hash);
+        } catch (IOException e) {
+            Metrics.counter("model." + name + ".rejected").increment();
+            Log.e("ModelRegistry", "Not loading " + name, e);
+            return;
+        }
+        try {
+            load.load(modelFile, hash);
+            installedHashes.put(name, hash);
+        } catch (IOException | RuntimeException e) {
+            Metrics.counter("model." + name + ".load_failures").increment();
+            Log.e("ModelRegistry", "Failed to load " + name, e);
+        }
+    }
+
+    /**
+     * Run one dummy batch through the model, then one on each of its interpreters.
+     */
+    static WarmUp warmUp(SentimentModel model, long loadStartNanos) {
+        long loadMs = (System.nanoTime() - loadStartNanos) / 1000000;
+        SentimentTokenizer tokenizer = model.getTokenizer();
+        int[][] tokens = new int[1][SentimentTokenizer.SEQUENCE_LENGTH];
+        float[][] scores = new float[1][tokenizer.getLabels().size()];
+        tokenizer.tokenize("warm up", tokens[0]);
+
+        long start = System.nanoTime();
+        model.getRunner().run(tokens, 1, scores);
+        double coldMs = (System.nanoTime() - start) / 1e6;
+        if (model.getRunner() instanceof InterpreterPool) {
+            ((InterpreterPool) model.getRunner()).runOnEach(tokens, 1, scores);
+        }
+        start = System.nanoTime();
+        model.getRunner().run(tokens, 1, scores);
+        double warmMs = (System.nanoTime() - start) / 1e6;
+        return new WarmUp("sentiment " + model.getVersion(), loadMs, coldMs, warmMs);
+    }
+
+    static WarmUp warmUp(LandmarkClassifier classifier, long loadStartNanos) {
+        long loadMs = (System.nanoTime() - loadStartNanos) / 1000000;
+        Bitmap blank = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        long start = System.nanoTime();
+        classifier.classify(blank);
+        double coldMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        classifier.classify(blank);
+        double warmMs = (System.nanoTime() - start) / 1e6;
+        blank.recycle();
+        return new WarmUp("landmark", loadMs, coldMs, warmMs);
+    }
+
+    /**
+     * Log the warm-up and record it in the load, cold_inference and
+     * warm_inference histograms of the model kind.
+     */
+    private static void record(String kind, WarmUp warmUp) {
+        Log.d("ModelRegistry", warmUp.toString());
+        String prefix = "model." + kind + ".";
+        Metrics.histogram(prefix + "load").record(TimeUnit.MILLISECONDS.toNanos(warmUp.loadMs));
+        Metrics.histogram(prefix + "cold_inference").record((long) (warmUp.coldMs * 1e6));
+        Metrics.histogram(prefix + "warm_inference").record((long) (warmUp.warmMs * 1e6));
+    }
+
+    private void installSentiment(final SentimentModel model, final WarmUp warmUp) {
+        record("sentiment", warmUp);
+        main.post(() -> {
+            warmUps.add(warmUp);
+            if (sentimentBatcher == null) {
+                sentimentBatcher = new SentimentBatcher(model);
+            } else {
+                // Batches already running finish on the previous model
+                sentimentBatcher.swap(model);
+            }
+            sentimentVersion = model.getVersion();
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onSentimentModel(sentimentBatcher, sentimentVersion);
+            }
+        });
+    }
+
+    private void installLandmark(final LandmarkClassifier classifier, final WarmUp warmUp) {
+        record("landmark", warmUp);
+        main.post(() -> {
+            warmUps.add(warmUp);
+            LandmarkClassifier previous = landmarkClassifier;
+            landmarkClassifier = classifier;
+            for (Listener listener : new ArrayList<>(listeners)) {
+                listener.onLandmarkClassifier(classifier);
+            }
+            if (previous != null) {
+                // Freed once a classification still running on it returns; a
+                // routing that picks it up afterwards falls back to the cloud
+                previous.close();
+            }
+        });
+    }
+}
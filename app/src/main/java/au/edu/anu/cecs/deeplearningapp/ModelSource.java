@@ -0,0 +1,27 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.io.File;
+
+/**
+ * Where ModelRegistry gets model files from. FirebaseModelSource downloads them
+ * from Firebase ML; tests serve local files instead.
+ */
+public interface ModelSource {
+    /**
+     * Receives the model file and the SHA-256 of its content, as hex, or the failure.
+     * Called once, on any thread.
+     */
+    interface Callback {
+        void onModel(File modelFile, String hash);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Get a model file.
+     *
+     * @param latest wait for the newest version rather than returning the one
+     *               already on the device
+     */
+    void getModel(String name, boolean latest, Callback callback);
+}
@@ -0,0 +1,329 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs landmark recognition off the main thread, in the stages
+ * decode, preprocess, encode, call and parse.
+ *
+ * Decoding has a thread of its own, so a slow gallery read never holds up a
+ * recognition. Scaling, hashing, the cache lookup, on-device classification,
+ * encoding and parsing share a second thread, and the cloud call is
+ * asynchronous. Only the newest image counts: selecting another one turns the
+ * stages still queued for the previous image into no-ops and drops its results.
+ * Tapping analyze again while a recognition is in flight joins it instead of
+ * uploading the image twice.
+ *
+ * Results are delivered on the main thread while the lifecycle is at least
+ * started. Results arriving while it is stopped are held until it starts
+ * again, and the pipeline shuts down when the lifecycle is destroyed.
+ *
+ * Each stage is timed in a recognize.* histogram of Metrics, and the bytes sent
+ * are counted in recognize.bytes_sent. Compressing and base64-encoding are one
+ * stage, which fits the image to the network's budget with an
+ * AdaptiveImageEncoder; the cloud call itself is timed by LandmarkRecognizer.
+ */
+public class RecognitionPipeline implements LifecycleEventObserver {
+    private static final LatencyHistogram DECODE_TIME = Metrics.histogram("recognize.decode");
+    private static final LatencyHistogram SCALE_TIME = Metrics.histogram("recognize.scale");
+    private static final LatencyHistogram HASH_TIME = Metrics.histogram("recognize.hash");
+    private static final LatencyHistogram ENCODE_TIME = Metrics.histogram("recognize.encode");
+    private static final LatencyHistogram PARSE_TIME = Metrics.histogram("recognize.parse");
+    // From tapping analyze to the result, whichever route answered
+    private static final LatencyHistogram TOTAL_TIME = Metrics.histogram("recognize.total");
+    private static final Metrics.Counter BYTES_SENT = Metrics.counter("recognize.bytes_sent");
+    private static final Metrics.Counter ENCODE_ATTEMPTS =
+            Metrics.counter("recognize.encode_attempts");
+
+    /**
+     * Receives the outcome of each stage that is visible to the user, on the main thread.
+     */
+    public interface Listener {
+        void onImageDecoded(Bitmap bitmap);
+
+        void onResult(String description, LandmarkRouter.Route route);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * One selected image. Its mutable state is only touched on the main thread.
+     */
+    private static final class Job {
+        final Uri uri;
+        Bitmap bitmap;
+        boolean decoded;
+        boolean recognizing;
+
+        Job(Uri uri) {
+            this.uri = uri;
+        }
+    }
+
+    private final Lifecycle lifecycle;
+    private final ContentResolver resolver;
+    private final LandmarkRouter router;
+    private final int maxDimension;
+    private final AdaptiveImageEncoder payloadEncoder;
+    private final boolean lowMemory;
+    private final Listener listener;
+    private final Executor decodeExecutor;
+    private final Executor workExecutor;
+    private final Executor mainExecutor;
+    private final List<Runnable> held = new ArrayList<>();
+    private volatile Job current;
+
+    /**
+     * Must be created on the main thread.
+     *
+     * @param payloadEncoder only used on the pipeline's thread
+     * @param lowMemory      decode to RGB_565, see BitmapDecoder
+     */
+    public RecognitionPipeline(LifecycleOwner owner, ContentResolver resolver,
+                               LandmarkRouter router, int maxDimension,
+                               AdaptiveImageEncoder payloadEncoder, boolean lowMemory,
+                               Listener listener) {
+        this(owner.getLifecycle(), resolver, router, maxDimension, payloadEncoder, lowMemory,
+                listener, Executors.newSingleThreadExecutor(),
+                Executors.newSingleThreadExecutor(),
+                new Handler(Looper.getMainLooper())::post);
+    }
+
+    RecognitionPipeline(Lifecycle lifecycle, ContentResolver resolver,
+                        LandmarkRouter router, int maxDimension,
+                        AdaptiveImageEncoder payloadEncoder, boolean lowMemory,
+                        Listener listener, Executor decodeExecutor, Executor workExecutor,
+                        Executor mainExecutor) {
+        this.lifecycle = lifecycle;
+        this.resolver = resolver;
+        this.router = router;
+        this.maxDimension = maxDimension;
+        this.payloadEncoder = payloadEncoder;
+        this.lowMemory = lowMemory;
+        this.listener = listener;
+        this.decodeExecutor = decodeExecutor;
+        this.workExecutor = workExecutor;
+        this.mainExecutor = mainExecutor;
+        lifecycle.addObserver(this);
+    }
+
+    /**
+     * Start decoding a newly selected image, superseding the previous one.
+     */
+    public void select(Uri uri) {
+        final Job job = new Job(uri);
+        current = job;
+        held.clear();
+        decodeExecutor.execute(() -> {
+            if (job != current) {
+                return;
+            }
+            try {
+                long start = Metrics.now();
+                final Bitmap bitmap = decode(job.uri);
+                DECODE_TIME.recordSince(start);
+                post(job, () -> {
+                    job.bitmap = bitmap;
+                    job.decoded = true;
+                    deliver(() -> listener.onImageDecoded(bitmap));
+                    // Analyze was tapped before the image was ready
+                    if (job.recognizing) {
+                        startRecognition(job);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                post(job, () -> {
+                    current = null;
+                    deliver(() -> listener.onFailure(e));
+                });
+            }
+        });
+    }
+
+    /**
+     * Recognize the selected image. Does nothing while a recognition of the same
+     * image is still running. Must be called on the main thread.
+     */
+    public void recognize() {
+        Job job = current;
+        if (job == null || job.recognizing) {
+            return;
+        }
+        job.recognizing = true;
+        if (job.decoded) {
+            startRecognition(job);
+        }
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_START) {
+            List<Runnable> ready = new ArrayList<>(held);
+            held.clear();
+            for (Runnable callback : ready) {
+                callback.run();
+            }
+        } else if (event == Lifecycle.Event.ON_DESTROY) {
+            close();
+        }
+    }
+
+    /**
+     * Drop everything in flight and stop the pipeline's threads.
+     */
+    public void close() {
+        current = null;
+        held.clear();
+        lifecycle.removeObserver(this);
+        shutdown(decodeExecutor);
+        shutdown(workExecutor);
+    }
+
+    private void startRecognition(final Job job) {
+        final Bitmap bitmap = job.bitmap;
+        final long start = Metrics.now();
+        workExecutor.execute(() -> {
+            if (job != current) {
+                return;
+            }
+            final Bitmap scaled;
+            final long hash;
+            try {
+                long stageStart = Metrics.now();
+                scaled = preprocess(bitmap);
+                SCALE_TIME.recordSince(stageStart);
+                stageStart = Metrics.now();
+                hash = hash(scaled);
+                HASH_TIME.recordSince(stageStart);
+            } catch (RuntimeException e) {
+                finish(job, () -> listener.onFailure(e));
+                return;
+            }
+            router.recognize(scaled, hash, () -> {
+                // Skip the encode and the upload if a newer image was selected meanwhile
+                if (job != current) {
+                    throw new CancellationException();
+                }
+                long stageStart = Metrics.now();
+                String request = encode(scaled);
+                ENCODE_TIME.recordSince(stageStart);
+                return request;
+            }, new LandmarkRouter.Callback() {
+                @Override
+                public void onResult(final Object data, final LandmarkRouter.Route route) {
+                    // Also keeps a late answer away from the executor once it is shut down
+                    if (job != current) {
+                        return;
+                    }
+                    // The cloud answers on the main thread, parse on the work thread
+                    workExecutor.execute(() -> {
+                        if (job != current) {
+                            return;
+                        }
+                        try {
+                            long stageStart = Metrics.now();
+                            final String description = parse(data);
+                            PARSE_TIME.recordSince(stageStart);
+                            TOTAL_TIME.recordSince(start);
+                            finish(job, () -> listener.onResult(description, route));
+                        } catch (RuntimeException e) {
+                            finish(job, () -> listener.onFailure(e));
+                        }
+                    });
+                }
+
+                @Override
+                public void onFailure(final Exception e) {
+                    finish(job, () -> listener.onFailure(e));
+                }
+            });
+        });
+    }
+
+    Bitmap decode(Uri uri) throws IOException {
+        return BitmapDecoder.decode(resolver, uri, maxDimension, lowMemory);
+    }
+
+    Bitmap preprocess(Bitmap bitmap) {
+        return LandmarkActivity.scaleBitmapDown(bitmap, maxDimension);
+    }
+
+    long hash(Bitmap scaled) {
+        return ImageHash.dHash(scaled);
+    }
+
+    /** Compress the image within the network's byte budget and base64 it into the request **/
+    String encode(Bitmap scaled) {
+        long gcBefore = MemoryStats.gcCount();
+        long heapBefore = MemoryStats.heapUsed();
+
+        String request = payloadEncoder.encode(scaled, VisionRequestEncoder.DEFAULT_MAX_RESULTS);
+        BYTES_SENT.add(request.length());
+        ENCODE_ATTEMPTS.add(payloadEncoder.getAttempts());
+        Log.d("Recognize", "Request of " + request.length() + " bytes (image "
+                + payloadEncoder.getImageLength() + " bytes at " + payloadEncoder.getDimension()
+                + "px, quality " + payloadEncoder.getQuality() + ", "
+                + payloadEncoder.getAttempts() + " attempts on " + payloadEncoder.getNetwork()
+                + "), heap grew by " + (MemoryStats.heapUsed() - heapBefore) / 1024 + " KB, "
+                + (MemoryStats.gcCount() - gcBefore) + " GCs");
+        return request;
+    }
+
+    String parse(Object data) {
+        // Only use the top prediction
+        return VisionResponseParser.describe(VisionResponseParser.parse(data, 1));
+    }
+
+    /**
+     * Run the update on the main thread, unless the job has been superseded by then.
+     */
+    private void post(final Job job, final Runnable update) {
+        mainExecutor.execute(() -> {
+            if (job == current) {
+                update.run();
+            }
+        });
+    }
+
+    private void finish(final Job job, final Runnable callback) {
+        post(job, () -> {
+            job.recognizing = false;
+            deliver(callback);
+        });
+    }
+
+    /**
+     * Call the listener now if the lifecycle is started, otherwise once it is.
+     */
+    private void deliver(Runnable callback) {
+        if (lifecycle.getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+            callback.run();
+        } else {
+            held.add(callback);
+        }
+    }
+
+    private static void shutdown(Executor executor) {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdownNow();
+        }
+    }
+}
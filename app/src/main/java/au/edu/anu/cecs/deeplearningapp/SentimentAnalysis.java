@@ -1,58 +1,108 @@
 package au.edu.anu.cecs.deeplearningapp;
 
+import android.content.ContentResolver;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ScrollView;
-import android.widget.TextView;
-import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.RecyclerView;
 
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.firebase.ml.modeldownloader.CustomModel;
-import com.google.firebase.ml.modeldownloader.CustomModelDownloadConditions;
-import com.google.firebase.ml.modeldownloader.DownloadType;
-import com.google.firebase.ml.modeldownloader.FirebaseModelDownloader;
-
-import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.support.label.Category;
-import org.tensorflow.lite.task.text.nlclassifier.NLClassifier;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SentimentAnalysis extends AppCompatActivity {
-    private Button returnBut, analyzeBut;
+    // Shared by every instance of the screen so results survive recreation
+    private static final SentimentCache cache = new SentimentCache();
+    // Texts being classified, keyed like the cache, so repeated taps share one run
+    private static final SingleFlight<String, List<Category>> inFlight =
+            new SingleFlight<>("sentiment");
+    // Scores picked files, one at a time. Also shared, so a file keeps being
+    // scored while the screen is recreated, e.g. on rotation
+    private static final ExecutorService bulkExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler mainThread = new Handler(Looper.getMainLooper());
+    // Main thread only: the file being scored, the screen that started or took
+    // over showing it, its progress and a summary that finished while there was
+    // no screen
+    private static Future<?> bulkRun;
+    private static int bulkRunNumber;
+    private static SentimentAnalysis bulkScreen;
+    private static String bulkProgress;
+    private static String bulkSummary;
+
+    private Button returnBut, analyzeBut, bulkBut;
     private EditText newComment;
-    private TextView resultText;
-    private ExecutorService executorService;
-    private ScrollView scrollView;
-    private NLClassifier textClassifier;
+    private HistoryAdapter history;
+    // Shared by the whole process, see ModelRegistry
+    private SentimentBatcher batcher;
+    private final int PICK_FILE_REQUEST = 22;
+    private long createdAt;
+    private boolean firstInferenceLogged;
+
+    private final ModelRegistry.Listener models = new ModelRegistry.Listener() {
+        @Override
+        public void onSentimentModel(SentimentBatcher sentimentBatcher, String version) {
+            batcher = sentimentBatcher;
+            // Results of an older model version are no longer valid
+            cache.setModelVersion(version);
+
+            // Enable predict button
+            analyzeBut.setEnabled(true);
+            bulkBut.setEnabled(bulkRun == null);
+            Log.d("SentimentAnalysis", "Model " + version + " ready after "
+                    + (SystemClock.elapsedRealtime() - createdAt) + " ms");
+        }
+
+        @Override
+        public void onLandmarkClassifier(LandmarkClassifier classifier) {
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_sentiment);
-
-        // Call the method to download TFLite model
-        downloadModel("SentimentAnalysis");
-        executorService = Executors.newSingleThreadExecutor();
+        createdAt = SystemClock.elapsedRealtime();
 
         newComment = findViewById(R.id.new_comment);
-        scrollView = findViewById(R.id.sa_scroll_view);
-        resultText = findViewById(R.id.sa_result_text);
+        // Results of earlier sessions are paged in from the history store
+        history = new HistoryAdapter(HistoryStore.getInstance(this), HistoryStore.SENTIMENT);
+        history.attach((RecyclerView) findViewById(R.id.sa_history));
         returnBut = findViewById(R.id.sa_return_button);
         analyzeBut = findViewById(R.id.sa_analyze_button);
         analyzeBut.setEnabled(false);
-        Toast.makeText(getApplicationContext(),
-                "Downloading the model...", Toast.LENGTH_LONG).show();
+        bulkBut = findViewById(R.id.sa_bulk_button);
+        bulkBut.setEnabled(false);
+        // Pick up a file scored by the previous instance of the screen, unless
+        // another instance still shows it, e.g. further down the back stack
+        if (bulkScreen == null) {
+            bulkScreen = this;
+        }
+        if (bulkProgress != null) {
+            bulkBut.setText(bulkProgress);
+        }
+        if (bulkSummary != null) {
+            showResult(bulkSummary);
+            bulkSummary = null;
+        }
+
+        // The models are loaded and warmed up at startup, this only waits if
+        // they are not ready yet
+        ModelRegistry.getInstance().addListener(models);
 
         // Return the main activity
         returnBut.setOnClickListener(new View.OnClickListener() {
@@ -67,29 +117,195 @@ public class SentimentAnalysis extends AppCompatActivity {
         analyzeBut.setOnClickListener((View v) -> {
             classify(newComment.getText().toString());
         });
+
+        // Score every comment of an exported file
+        bulkBut.setOnClickListener((View v) -> selectFile());
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Don't lose the latest results if the process is killed in the background
+        HistoryStore.getInstance(this).flush();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        ModelRegistry.getInstance().removeListener(models);
+        if (bulkScreen != this) {
+            return;
+        }
+        bulkScreen = null;
+        // Only closing the screen stops its file, not recreating it or the system
+        // destroying it in the background
+        if (isFinishing() && bulkRun != null) {
+            // Interrupts the running file, which saves a checkpoint to resume from
+            bulkRun.cancel(true);
+            bulkRun = null;
+            bulkProgress = null;
+        }
     }
 
     /**
-     * Send input text to TextClassificationClient and get the classify messages.
+     * Send input text to the batcher and get the classify messages. Texts already
+     * being classified share the result of that run.
      */
     private void classify(final String text) {
-        executorService.execute(
-                () -> {
-                    // Run sentiment analysis on the input text
-                    List<Category> results = textClassifier.classify(text);
-
-                    // Convert the result to a human-readable text
-                    String textToShow = "Input: " + text + "\nOutput:\n";
-                    for (int i = 0; i < results.size(); i++) {
-                        Category result = results.get(i);
-                        textToShow += String.format("    %s: %s\n", result.getLabel(),
-                                result.getScore());
-                    }
-                    textToShow += "---------\n";
-
-                    // Show classification result on screen
-                    showResult(textToShow);
-                });
+        // Repeated comments are answered without running the model. Hits and
+        // misses are counted in Metrics, see MetricsActivity
+        List<Category> cached = cache.get(text);
+        if (cached != null) {
+            showResult(formatResult(text, cached));
+            return;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        // A text already being classified joins that run instead of queueing again
+        String key = SentimentCache.normalize(text);
+        inFlight.execute(key, new SingleFlight.Callback<List<Category>>() {
+            @Override
+            public void onResult(List<Category> results) {
+                if (!firstInferenceLogged) {
+                    firstInferenceLogged = true;
+                    Log.d("SentimentAnalysis", "First inference took "
+                            + (SystemClock.elapsedRealtime() - start) + " ms");
+                }
+
+                // Show classification result on screen
+                showResult(formatResult(text, results));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                showResult("Input: " + text + "\nClassification failed: " + e.getMessage()
+                        + "\n---------\n");
+            }
+        }, (SingleFlight.Callback<List<Category>> done) -> {
+            boolean queued = batcher.classify(text, (String input, SentimentScores scores) -> {
+                if (scores == null) {
+                    done.onFailure(new IllegalStateException("the model failed"));
+                    return;
+                }
+                // The scores are reused for the next text, the cache keeps a copy
+                List<Category> results = scores.toCategories();
+                cache.put(input, results, scores.getModelVersion());
+                done.onResult(results);
+            });
+            if (!queued) {
+                done.onFailure(new IllegalStateException("too many texts queued, try again"));
+            }
+        });
+    }
+
+    /**
+     * Pick a CSV or JSONL file of comments to score.
+     */
+    private void selectFile() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        intent.putExtra(Intent.EXTRA_MIME_TYPES, new String[]{"text/csv",
+                "text/comma-separated-values", "text/plain", "application/json",
+                "application/x-ndjson"});
+        startActivityForResult(intent, PICK_FILE_REQUEST);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == PICK_FILE_REQUEST && resultCode == RESULT_OK
+                && data != null && data.getData() != null) {
+            scoreFile(data.getData());
+        }
+    }
+
+    /**
+     * Score every comment of the file in the background. The results are written
+     * to a CSV of their own per picked file, in bulk/ of the app's external files;
+     * picking the same file after an interruption resumes where it stopped.
+     */
+    private void scoreFile(final Uri uri) {
+        File dir = getExternalFilesDir("bulk");
+        if (dir == null) {
+            dir = new File(getFilesDir(), "bulk");
+        }
+        dir.mkdirs();
+        // Named after the picked file, so scoring another one keeps earlier results
+        String name = "sentiment-" + Integer.toHexString(uri.toString().hashCode());
+        final File output = new File(dir, name + ".csv");
+        final BulkSentimentScorer scorer = new BulkSentimentScorer(batcher, output,
+                new File(dir, name + ".checkpoint"));
+        // The run may outlive this instance of the screen, so it holds on to none
+        final ContentResolver resolver = getApplicationContext().getContentResolver();
+        final int runNumber = ++bulkRunNumber;
+        bulkScreen = this;
+        bulkBut.setEnabled(false);
+        bulkRun = bulkExecutor.submit(() -> {
+            String summary;
+            try (InputStream input = resolver.openInputStream(uri)) {
+                if (input == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                BulkSentimentScorer.Report report = scorer.score(input, uri.toString(),
+                        (long records, double recordsPerSecond) -> mainThread.post(() ->
+                                showBulkProgress(runNumber, records + " lines")));
+                Log.d("SentimentAnalysis", report.toString());
+                summary = report + "\nResults in " + output + "\n---------\n";
+            } catch (InterruptedException e) {
+                // Closed, the checkpoint is saved
+                return;
+            } catch (IOException | RuntimeException e) {
+                Log.e("SentimentAnalysis", "Failed to score " + uri, e);
+                summary = "Failed to score " + uri + ": " + e.getMessage()
+                        + "\nPick the file again to resume\n---------\n";
+            }
+            final String result = summary;
+            mainThread.post(() -> finishBulkRun(runNumber, result));
+        });
+    }
+
+    /**
+     * Show the progress of the file being scored on the current screen, if any.
+     */
+    private static void showBulkProgress(int runNumber, String progress) {
+        if (runNumber != bulkRunNumber || bulkRun == null) {
+            return;
+        }
+        bulkProgress = progress;
+        if (bulkScreen != null) {
+            bulkScreen.bulkBut.setText(progress);
+        }
+    }
+
+    private static void finishBulkRun(int runNumber, String summary) {
+        if (runNumber != bulkRunNumber || bulkRun == null) {
+            // Cancelled when its screen was closed
+            return;
+        }
+        bulkRun = null;
+        bulkProgress = null;
+        if (bulkScreen == null) {
+            bulkSummary = summary;
+            return;
+        }
+        bulkScreen.showResult(summary);
+        bulkScreen.bulkBut.setText(R.string.score_file);
+        bulkScreen.bulkBut.setEnabled(bulkScreen.batcher != null);
+    }
+
+    /**
+     * Convert the result to a human-readable text.
+     */
+    private static String formatResult(String text, List<Category> results) {
+        StringBuilder textToShow = new StringBuilder(text.length() + 32 * results.size() + 32)
+                .append("Input: ").append(text).append("\nOutput:\n");
+        for (int i = 0; i < results.size(); i++) {
+            Category result = results.get(i);
+            textToShow.append("    ").append(result.getLabel()).append(": ")
+                    .append(result.getScore()).append('\n');
+        }
+        return textToShow.append("---------\n").toString();
     }
 
     /**
@@ -99,58 +315,11 @@ public class SentimentAnalysis extends AppCompatActivity {
         // Run on UI thread as we'll updating our app UI
         runOnUiThread(
                 () -> {
-                    // Append the result to the UI.
-                    resultText.append(textToShow);
+                    // Log the result and show it at the bottom of the history.
+                    history.add(textToShow);
 
                     // Clear the input text.
                     newComment.getText().clear();
-
-                    // Scroll to the bottom to show latest entry's classification result.
-                    scrollView.post(() -> scrollView.fullScroll(View.FOCUS_DOWN));
-                });
-    }
-
-    /**
-     * Download model from Firebase ML.
-     */
-    private synchronized void downloadModel(String modelName) {
-        CustomModelDownloadConditions conditions = new CustomModelDownloadConditions.Builder()
-                .requireWifi()  // Also possible: .requireCharging() and .requireDeviceIdle()
-                .build();
-        FirebaseModelDownloader.getInstance()
-                .getModel(modelName, DownloadType.LOCAL_MODEL_UPDATE_IN_BACKGROUND, conditions)
-                .addOnSuccessListener(new OnSuccessListener<CustomModel>() {
-                    @Override
-                    public void onSuccess(CustomModel model) {
-                        // Download complete. Depending on your app, you could enable the ML
-                        // feature, or switch from the local model to the remote model, etc.
-                        Toast.makeText(getApplicationContext(),
-                                "Download successfully!", Toast.LENGTH_LONG).show();
-
-                        // The CustomModel object contains the local path of the model file,
-                        // which you can use to instantiate a TensorFlow Lite interpreter.
-                        File modelFile = model.getFile();
-                        if (modelFile != null) {
-                            // Initialize a TextClassifier with the downloaded model
-                            try {
-                                textClassifier = NLClassifier.createFromFile(modelFile);
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
-
-                            // Enable predict button
-                            analyzeBut.setEnabled(true);
-                        }
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    Log.e("SentimentAnalysis", "Failed to download and initialize the model. ", e);
-                    Toast.makeText(
-                            getApplicationContext(),
-                            "Model download failed, please check your connection.",
-                            Toast.LENGTH_LONG)
-                            .show();
-                    analyzeBut.setEnabled(false);
                 });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,331 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Groups pending texts into micro-batches and classifies each batch with one
+ * model invocation.
+ *
+ * A batch is closed once it holds maxBatchSize texts or maxWaitMs has passed
+ * since its first text arrived. Several batches can run at once when the runner
+ * is an InterpreterPool, but texts are always delivered in the order they were
+ * submitted.
+ *
+ * The model can be swapped at any time. Batches already running finish on the
+ * old model, which is closed once the last of them is done.
+ *
+ * At most maxPending texts wait for a batch. Beyond that classify() turns texts
+ * away and classifyBlocking() waits for room, so a fast producer cannot queue
+ * up an unbounded backlog.
+ *
+ * How long texts wait for their batch to start and how long the model takes per
+ * batch are recorded in the sentiment.queue_wait and sentiment.inference Metrics.
+ */
+public class SentimentBatcher {
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_WAIT_MS = 10;
+    public static final int DEFAULT_MAX_PENDING = 1024;
+    private static final LatencyHistogram QUEUE_WAIT = Metrics.histogram("sentiment.queue_wait");
+    private static final LatencyHistogram INFERENCE_TIME =
+            Metrics.histogram("sentiment.inference");
+    private static final Metrics.Counter TEXTS = Metrics.counter("sentiment.texts");
+    private static final Metrics.Counter BATCHES = Metrics.counter("sentiment.batches");
+    private static final Metrics.Counter FAILED_BATCHES =
+            Metrics.counter("sentiment.failed_batches");
+    private static final Metrics.Counter REJECTED = Metrics.counter("sentiment.rejected");
+
+    /**
+     * Receives the classification of one text, on one of the batcher's worker threads.
+     * The scores are null if the model failed on the text's batch, there was no
+     * model, or the batcher was closed first. Exceptions thrown by a callback are
+     * logged and do not affect the other texts.
+     *
+     * The scores are filled again for the next text once the callback returns, so
+     * whatever outlives the call has to be copied, e.g. with toCategories().
+     */
+    public interface Callback {
+        void onResult(String text, SentimentScores scores);
+    }
+
+    private static final class Request {
+        final String text;
+        final Callback callback;
+        final long queuedAt = Metrics.now();
+
+        Request(String text, Callback callback) {
+            this.text = text;
+            this.callback = callback;
+        }
+    }
+
+    private final AtomicReference<SentimentModel> model;
+    private final int maxBatchSize;
+    private final long maxWaitMs;
+    private final BlockingQueue<Request> pending;
+    private final ExecutorService workers;
+
+    // Batches are numbered as they are collected and delivered in that order
+    private final Object collectLock = new Object();
+    private final Object deliverLock = new Object();
+    private long nextBatch;
+    private long nextDelivery;
+
+    public SentimentBatcher(SentimentModel model) {
+        this(model, DEFAULT_BATCH_SIZE, DEFAULT_MAX_WAIT_MS, model.getParallelism());
+    }
+
+    public SentimentBatcher(SentimentModel model, int maxBatchSize, long maxWaitMs,
+                            int parallelism) {
+        this(model, maxBatchSize, maxWaitMs, parallelism, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param parallelism number of batches run at once, which must not exceed what
+     *                    the runner of this and any later model supports
+     * @param maxPending  number of texts that can wait for a batch
+     */
+    public SentimentBatcher(SentimentModel model, int maxBatchSize, long maxWaitMs,
+                            int parallelism, int maxPending) {
+        this.model = new AtomicReference<>(model);
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitMs = maxWaitMs;
+        pending = new LinkedBlockingQueue<>(maxPending);
+        workers = Executors.newFixedThreadPool(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            workers.execute(new Worker());
+        }
+    }
+
+    /**
+     * Queue a text for classification. Returns false, without calling back, if
+     * maxPending texts are already waiting.
+     */
+    public boolean classify(String text, Callback callback) {
+        if (pending.offer(new Request(text, callback))) {
+            return true;
+        }
+        REJECTED.increment();
+        return false;
+    }
+
+    /**
+     * Queue a text for classification, waiting while maxPending texts are
+     * already waiting.
+     */
+    public void classifyBlocking(String text, Callback callback) throws InterruptedException {
+        pending.put(new Request(text, callback));
+    }
+
+    /**
+     * Replace the model without interrupting batches that are already running.
+     * The batcher takes over the caller's reference to the new model. While the
+     * model is null, texts are answered as failed.
+     */
+    public void swap(SentimentModel next) {
+        SentimentModel previous = model.getAndSet(next);
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    public SentimentModel getModel() {
+        return model.get();
+    }
+
+    /**
+     * Stop the workers and release the model. Batches already collected are
+     * delivered, texts still pending are answered as failed.
+     */
+    public void close() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        swap(null);
+        Request request;
+        while ((request = pending.poll()) != null) {
+            callBack(request, null);
+        }
+    }
+
+    /**
+     * Take a reference to the current model, retrying if it is swapped out meanwhile.
+     */
+    private SentimentModel acquireModel() {
+        while (true) {
+            SentimentModel current = model.get();
+            if (current == null || current.acquire()) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Collects, runs and delivers batches. Each worker owns its input and output
+     * buffers, so batches never share memory, and delivers every result through
+     * the same SentimentScores, so results allocate nothing.
+     */
+    private final class Worker implements Runnable {
+        private final List<Request> batch = new ArrayList<>(maxBatchSize);
+        private final int[][] tokens = new int[maxBatchSize][SentimentTokenizer.SEQUENCE_LENGTH];
+        private float[][] scores = new float[maxBatchSize][0];
+        private final SentimentScores results = new SentimentScores();
+        private SentimentModel current;
+
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    long batchNumber;
+                    synchronized (collectLock) {
+                        collectBatch();
+                        batchNumber = nextBatch++;
+                    }
+                    // Every numbered batch must be delivered, or later ones wait forever
+                    current = acquireModel();
+                    if (current == null) {
+                        deliver(batchNumber, false);
+                        continue;
+                    }
+                    try {
+                        boolean success = runBatch();
+                        deliver(batchNumber, success);
+                    } finally {
+                        current.release();
+                        current = null;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Closed
+            }
+        }
+
+        /**
+         * Block for the first text, then keep collecting until the batch is full or
+         * its wait time has run out.
+         */
+        private void collectBatch() throws InterruptedException {
+            batch.clear();
+            batch.add(pending.take());
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            while (batch.size() < maxBatchSize) {
+                // Take whatever is already queued without waiting
+                pending.drainTo(batch, maxBatchSize - batch.size());
+                long remaining = deadline - System.nanoTime();
+                if (batch.size() >= maxBatchSize || remaining <= 0) {
+                    break;
+                }
+                Request next;
+                try {
+                    next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    // Closing, the texts already taken are delivered before stopping
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+        }
+
+        private boolean runBatch() {
+            SentimentTokenizer tokenizer = current.getTokenizer();
+            int labelCount = tokenizer.getLabels().size();
+            if (scores[0].length != labelCount) {
+                scores = new float[maxBatchSize][labelCount];
+            }
+
+            int count = batch.size();
+            TEXTS.add(count);
+            BATCHES.increment();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Request request = batch.get(i);
+                    QUEUE_WAIT.recordSince(request.queuedAt);
+                    tokenizer.tokenize(request.text, tokens[i]);
+                }
+                long start = Metrics.now();
+                current.getRunner().run(tokens, count, scores);
+                INFERENCE_TIME.recordSince(start);
+                return true;
+            } catch (RuntimeException e) {
+                FAILED_BATCHES.increment();
+                Log.e("SentimentBatcher", "Failed to classify a batch of " + count, e);
+                return false;
+            }
+        }
+
+        /**
+         * Wait until every earlier batch has been delivered, then hand out the results.
+         * The batch is delivered even if the worker is interrupted meanwhile, since
+         * the workers holding the earlier batches deliver them as well.
+         */
+        private void deliver(long batchNumber, boolean success) throws InterruptedException {
+            boolean interrupted = false;
+            synchronized (deliverLock) {
+                while (nextDelivery != batchNumber) {
+                    try {
+                        deliverLock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                try {
+                    if (success) {
+                        deliverResults();
+                    } else {
+                        deliverFailure();
+                    }
+                } finally {
+                    nextDelivery++;
+                    deliverLock.notifyAll();
+                }
+            }
+            if (interrupted) {
+                throw new InterruptedException();
+            }
+        }
+
+        private void deliverResults() {
+            List<String> labels = current.getTokenizer().getLabels();
+            for (int i = 0; i < batch.size(); i++) {
+                results.reset(labels, current.getVersion());
+                for (int j = 0; j < labels.size(); j++) {
+                    results.set(j, scores[i][j]);
+                }
+                callBack(batch.get(i), results);
+            }
+        }
+
+        private void deliverFailure() {
+            for (Request request : batch) {
+                callBack(request, null);
+            }
+        }
+    }
+
+    /**
+     * Call back for one text. A failing callback must not keep the rest of its
+     * batch waiting or stop the worker.
+     */
+    private static void callBack(Request request, SentimentScores results) {
+        try {
+            request.callback.onResult(request.text, results);
+        } catch (RuntimeException e) {
+            Log.e("SentimentBatcher", "Callback failed for a text", e);
+        }
+    }
+}
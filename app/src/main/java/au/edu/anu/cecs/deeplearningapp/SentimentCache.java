@@ -0,0 +1,119 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.tensorflow.lite.support.label.Category;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded LRU cache of classification results.
+ *
+ * Texts are normalized the same way the tokenizer sees them, so inputs that only
+ * differ in case, spacing or punctuation share an entry. The cache is emptied
+ * whenever a different model version is installed, and results of any other
+ * version than the installed one are not stored, so a batch that finishes on
+ * the previous model after an update cannot bring its scores back.
+ */
+public class SentimentCache {
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("sentiment.cache.hits");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("sentiment.cache.misses");
+
+    private final LinkedHashMap<String, List<Category>> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private String modelVersion;
+
+    public SentimentCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SentimentCache(final int capacity) {
+        // Access order makes the eldest entry the least recently used one
+        entries = new LinkedHashMap<String, List<Category>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Category>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cached results for the text, or null if it has not been classified.
+     */
+    public synchronized List<Category> get(String text) {
+        List<Category> results = entries.get(normalize(text));
+        if (results == null) {
+            misses.incrementAndGet();
+            CACHE_MISSES.increment();
+        } else {
+            hits.incrementAndGet();
+            CACHE_HITS.increment();
+        }
+        return results;
+    }
+
+    /**
+     * Store the results of the text, unless they were computed by another model
+     * version than the current one.
+     */
+    public synchronized void put(String text, List<Category> results, String version) {
+        if (version == null || !version.equals(modelVersion)) {
+            return;
+        }
+        entries.put(normalize(text), results);
+    }
+
+    /**
+     * Record the version of the model producing results, dropping every entry
+     * computed by a different version.
+     */
+    public synchronized void setModelVersion(String version) {
+        if (modelVersion != null && !modelVersion.equals(version)) {
+            entries.clear();
+        }
+        modelVersion = version;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "SentimentCache[size=%d, hits=%d, misses=%d]",
+                size(), getHits(), getMisses());
+    }
+
+    /**
+     * Lower-case the text and keep only its words, separated by single spaces.
+     */
+    static String normalize(String text) {
+        StringBuilder key = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (SentimentTokenizer.isWordChar(c)) {
+                if (pendingSpace && key.length() > 0) {
+                    key.append(' ');
+                }
+                key.append(Character.toLowerCase(c));
+                pendingSpace = false;
+            } else {
+                pendingSpace = true;
+            }
+        }
+        return key.toString();
+    }
+}
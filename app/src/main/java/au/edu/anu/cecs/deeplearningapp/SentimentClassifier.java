@@ -0,0 +1,93 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classifies one text at a time directly on a TensorFlow Lite interpreter,
+ * allocating nothing once it is created.
+ *
+ * The text is tokenized into a reused int array and copied into a direct
+ * input buffer in native order, which the interpreter reads without a copy on
+ * the Java heap. The scores are read into a reused output array and handed back
+ * through a caller-supplied SentimentScores. The interpreter's input and output
+ * arguments are created once as well; only its own bookkeeping of a few dozen
+ * bytes per call remains.
+ *
+ * Not thread-safe, use one classifier per thread or an InterpreterPool.
+ */
+public class SentimentClassifier implements Closeable {
+    private final SentimentTokenizer tokenizer;
+    private final Interpreter interpreter;
+    private final int[] tokens = new int[SentimentTokenizer.SEQUENCE_LENGTH];
+    private final ByteBuffer input;
+    private final IntBuffer inputInts;
+    private final float[][] output;
+    private final Object[] inputs;
+    private final Map<Integer, Object> outputs;
+
+    public SentimentClassifier(ByteBuffer model) throws IOException {
+        this(SentimentTokenizer.fromModel(model), new Interpreter(model));
+    }
+
+    SentimentClassifier(SentimentTokenizer tokenizer, Interpreter interpreter) {
+        this.tokenizer = tokenizer;
+        this.interpreter = interpreter;
+        if (interpreter != null && interpreter.getInputTensor(0).dataType() != DataType.INT32) {
+            throw new IllegalArgumentException("Expected int32 token ids, the model takes "
+                    + interpreter.getInputTensor(0).dataType());
+        }
+        input = ByteBuffer.allocateDirect(4 * tokens.length).order(ByteOrder.nativeOrder());
+        inputInts = input.asIntBuffer();
+        output = new float[1][tokenizer.getLabels().size()];
+        inputs = new Object[]{input};
+        outputs = Collections.<Integer, Object>singletonMap(0, output);
+    }
+
+    public List<String> getLabels() {
+        return tokenizer.getLabels();
+    }
+
+    public String getLabel(int index) {
+        return tokenizer.getLabels().get(index);
+    }
+
+    /**
+     * Classify the text and write its class scores into scores.
+     */
+    public void classify(CharSequence text, SentimentScores scores) {
+        tokenizer.tokenize(text, tokens);
+        inputInts.clear();
+        inputInts.put(tokens);
+        input.rewind();
+
+        run(inputs, outputs);
+
+        float[] row = output[0];
+        scores.reset(tokenizer.getLabels());
+        for (int i = 0; i < row.length; i++) {
+            scores.set(i, row[i]);
+        }
+    }
+
+    /**
+     * Invoke the model, filling output from input.
+     */
+    void run(Object[] inputs, Map<Integer, Object> outputs) {
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    @Override
+    public void close() {
+        interpreter.close();
+    }
+}
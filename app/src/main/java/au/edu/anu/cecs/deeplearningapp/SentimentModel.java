@@ -0,0 +1,120 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A loaded sentiment model: the tokenizer built from its vocabulary and the
+ * runner that executes it.
+ *
+ * The model is reference counted so it can be replaced while batches are still
+ * running on it. Whoever loads it holds the first reference, every batch
+ * acquires another, and the runner is closed when the last one is released.
+ */
+public class SentimentModel {
+    public static final String BUNDLED_ASSET = "sentiment_analysis.tflite";
+    public static final String BUNDLED_VERSION = "bundled";
+
+    private final SentimentTokenizer tokenizer;
+    private final BatchRunner runner;
+    private final String version;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public SentimentModel(SentimentTokenizer tokenizer, BatchRunner runner, String version) {
+        this.tokenizer = tokenizer;
+        this.runner = runner;
+        this.version = version;
+    }
+
+    /**
+     * Load a model from a buffer and build an interpreter pool for it.
+     */
+    public static SentimentModel load(ByteBuffer model, String version) throws IOException {
+        return new SentimentModel(SentimentTokenizer.fromModel(model),
+                InterpreterPool.create(model), version);
+    }
+
+    /**
+     * Load the model shipped in the APK. The asset is stored uncompressed, so it is
+     * memory-mapped rather than copied onto the heap.
+     */
+    public static SentimentModel loadBundled(Context context) throws IOException {
+        return loadBundled(context, SentimentVariant.FLOAT32);
+    }
+
+    public static SentimentModel loadBundled(Context context, SentimentVariant variant)
+            throws IOException {
+        return load(mapAsset(context, variant.asset), variant.bundledVersion());
+    }
+
+    /**
+     * Load a model downloaded by Firebase ML.
+     */
+    public static SentimentModel loadFile(File modelFile, String version) throws IOException {
+        return load(ModelMetadataReader.map(modelFile), version);
+    }
+
+    public static MappedByteBuffer mapAsset(Context context, String name) throws IOException {
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(name);
+             FileInputStream input = new FileInputStream(descriptor.getFileDescriptor());
+             FileChannel channel = input.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getDeclaredLength());
+        }
+    }
+
+    public SentimentTokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    public BatchRunner getRunner() {
+        return runner;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Number of batches the runner can execute at the same time.
+     */
+    public int getParallelism() {
+        return runner instanceof InterpreterPool ? ((InterpreterPool) runner).size() : 1;
+    }
+
+    /**
+     * Take a reference for one use of the model. Fails once the model has been closed.
+     */
+    public boolean acquire() {
+        while (true) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drop a reference, closing the runner when it was the last one.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            runner.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return references.get() == 0;
+    }
+}
@@ -0,0 +1,96 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.tensorflow.lite.support.label.Category;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Receives the class scores of one text from a SentimentClassifier or a
+ * SentimentBatcher.
+ *
+ * Meant to be kept and filled again for every text, so reading a result
+ * allocates nothing. Callers that keep a result copy it with toCategories().
+ */
+public final class SentimentScores {
+    private float[] scores = new float[0];
+    private List<String> labels = Collections.emptyList();
+    private String modelVersion;
+    private int count;
+    private int best;
+
+    void reset(List<String> labels) {
+        reset(labels, null);
+    }
+
+    /**
+     * Make room for one score per label and forget the previous scores.
+     *
+     * @param modelVersion version of the model producing the scores, if known
+     */
+    void reset(List<String> labels, String modelVersion) {
+        int classes = labels.size();
+        if (scores.length < classes) {
+            scores = new float[classes];
+        }
+        this.labels = labels;
+        this.modelVersion = modelVersion;
+        count = classes;
+        best = 0;
+    }
+
+    void set(int index, float score) {
+        scores[index] = score;
+        if (score > scores[best]) {
+            best = index;
+        }
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public float get(int index) {
+        if (index >= count) {
+            throw new IndexOutOfBoundsException("Class " + index + " of " + count);
+        }
+        return scores[index];
+    }
+
+    /**
+     * Index of the class with the highest score.
+     */
+    public int best() {
+        return best;
+    }
+
+    public float bestScore() {
+        return scores[best];
+    }
+
+    /**
+     * Version of the model that produced the scores, or null if unknown.
+     */
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    public String getLabel(int index) {
+        if (index >= count) {
+            throw new IndexOutOfBoundsException("Class " + index + " of " + count);
+        }
+        return labels.get(index);
+    }
+
+    /**
+     * A copy of the scores that stays valid once these are filled again.
+     */
+    public List<Category> toCategories() {
+        List<Category> categories = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            categories.add(new Category(labels.get(i), scores[i]));
+        }
+        return categories;
+    }
+}
@@ -0,0 +1,87 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns text into the token ids expected by the average word vector model.
+ *
+ * This mirrors the preprocessing of TFLite Model Maker: the text is lower-cased,
+ * split on anything that is not a word character or an apostrophe, prefixed with
+ * the START token and padded (or truncated) to the sequence length.
+ *
+ * Words are looked up in place with a VocabularyIndex, so tokenizing allocates
+ * nothing. Characters are lower-cased one at a time, which only differs from
+ * lower-casing the whole string for a few context-dependent letters such as
+ * the Greek final sigma.
+ */
+public class SentimentTokenizer {
+    public static final int SEQUENCE_LENGTH = 256;
+
+    private static final int PAD = 0;
+    private static final int START = 1;
+    private static final int UNKNOWN = 2;
+
+    private final VocabularyIndex vocab;
+    private final List<String> labels;
+
+    public SentimentTokenizer(Map<String, Integer> vocab, List<String> labels) {
+        this(new VocabularyIndex(vocab.size()), labels);
+        for (Map.Entry<String, Integer> entry : vocab.entrySet()) {
+            this.vocab.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public SentimentTokenizer(VocabularyIndex vocab, List<String> labels) {
+        this.vocab = vocab;
+        this.labels = labels;
+    }
+
+    /**
+     * Load the vocabulary and labels packed into the model file.
+     */
+    public static SentimentTokenizer fromModel(ByteBuffer model) throws IOException {
+        List<String> lines = ModelMetadataReader.readLines(model, "vocab.txt");
+        VocabularyIndex vocab = new VocabularyIndex(lines.size());
+        for (String line : lines) {
+            // Each line is "<word> <id>"
+            int split = line.lastIndexOf(' ');
+            vocab.put(line.substring(0, split), Integer.parseInt(line.substring(split + 1)));
+        }
+        List<String> labels = ModelMetadataReader.readLines(model, "labels.txt");
+        return new SentimentTokenizer(vocab, labels);
+    }
+
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Write the token ids of the text into ids, which must hold SEQUENCE_LENGTH entries.
+     */
+    public void tokenize(CharSequence text, int[] ids) {
+        Arrays.fill(ids, PAD);
+        ids[0] = START;
+        int count = 1;
+
+        int length = text.length();
+        int start = -1;
+        for (int i = 0; i <= length && count < ids.length; i++) {
+            boolean wordChar = i < length && isWordChar(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                int id = vocab.get(text, start, i);
+                ids[count++] = id == VocabularyIndex.NOT_FOUND ? UNKNOWN : id;
+                start = -1;
+            }
+        }
+    }
+
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '\'';
+    }
+}
@@ -0,0 +1,63 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The precisions the sentiment model can be shipped in, all registered under
+ * the one Firebase ML name SentimentAnalysis.
+ *
+ * Only the float model is required; the others are exported by the training
+ * notebook and used when they are bundled. SentimentVariantSelector picks
+ * between the ones available.
+ */
+public enum SentimentVariant {
+    FLOAT32(SentimentModel.BUNDLED_ASSET, ""),
+    DYNAMIC_INT8("sentiment_analysis_dynamic.tflite", "_dynamic"),
+    INT8("sentiment_analysis_int8.tflite", "_int8"),
+    FLOAT16("sentiment_analysis_float16.tflite", "_float16");
+
+    public static final String MODEL_NAME = "SentimentAnalysis";
+
+    public final String asset;
+    private final String suffix;
+
+    SentimentVariant(String asset, String suffix) {
+        this.asset = asset;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Name of the variant's updates in Firebase ML.
+     */
+    public String firebaseName() {
+        return MODEL_NAME + suffix;
+    }
+
+    /**
+     * Version of the variant shipped in the APK.
+     */
+    public String bundledVersion() {
+        return SentimentModel.BUNDLED_VERSION + suffix;
+    }
+
+    /**
+     * The variants bundled in the APK, the float model first.
+     */
+    public static List<SentimentVariant> available(Context context) {
+        List<SentimentVariant> variants = new ArrayList<>();
+        for (SentimentVariant variant : values()) {
+            try {
+                // Only opened to see whether it is bundled
+                context.getAssets().openFd(variant.asset).close();
+                variants.add(variant);
+            } catch (IOException e) {
+                // Not bundled
+            }
+        }
+        return variants;
+    }
+}
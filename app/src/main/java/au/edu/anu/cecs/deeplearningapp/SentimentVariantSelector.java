@@ -0,0 +1,186 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks the variants of the sentiment model on the device and picks the
+ * fastest one that still agrees with the float model.
+ *
+ * Every variant classifies the same held-out texts one at a time. Its latency
+ * is the median over the texts, and its agreement the share of texts whose best
+ * label matches the float model's. The choice is kept in SharedPreferences along
+ * with the variants it was chosen from, so it is only made again when the
+ * bundled variants change.
+ */
+public class SentimentVariantSelector {
+    public static final String PREFERENCES = "model_variants";
+    public static final float DEFAULT_MIN_AGREEMENT = 0.98f;
+
+    private static final String KEY_CHOSEN = SentimentVariant.MODEL_NAME + ".chosen";
+    private static final String KEY_CANDIDATES = SentimentVariant.MODEL_NAME + ".candidates";
+
+    /**
+     * A loaded variant and the memory its runner took.
+     */
+    public static final class Candidate {
+        public final SentimentVariant variant;
+        public final SentimentModel model;
+        public final long memoryBytes;
+
+        public Candidate(SentimentVariant variant, SentimentModel model, long memoryBytes) {
+            this.variant = variant;
+            this.model = model;
+            this.memoryBytes = memoryBytes;
+        }
+    }
+
+    /**
+     * How one variant did on the held-out texts.
+     */
+    public static final class Measurement {
+        public final SentimentVariant variant;
+        public final double medianMs;
+        public final long memoryBytes;
+        public final float agreement;
+        // Largest difference to a score of the float model
+        public final float maxScoreDelta;
+
+        Measurement(SentimentVariant variant, double medianMs, long memoryBytes,
+                    float agreement, float maxScoreDelta) {
+            this.variant = variant;
+            this.medianMs = medianMs;
+            this.memoryBytes = memoryBytes;
+            this.agreement = agreement;
+            this.maxScoreDelta = maxScoreDelta;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s: median %.2f ms, %d KB, agreement %.1f%%, max score delta %.4f",
+                    variant, medianMs, memoryBytes / 1024, agreement * 100, maxScoreDelta);
+        }
+    }
+
+    private final float minAgreement;
+
+    public SentimentVariantSelector() {
+        this(DEFAULT_MIN_AGREEMENT);
+    }
+
+    public SentimentVariantSelector(float minAgreement) {
+        this.minAgreement = minAgreement;
+    }
+
+    /**
+     * Measure every candidate on the texts. The first candidate is the reference
+     * the others are compared with.
+     */
+    public List<Measurement> measure(List<Candidate> candidates, List<String> texts) {
+        float[][] reference = null;
+        List<Measurement> measurements = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            float[][] scores = new float[texts.size()][];
+            double medianMs = run(candidate.model, texts, scores);
+            if (reference == null) {
+                reference = scores;
+            }
+
+            int agreeing = 0;
+            float maxDelta = 0;
+            for (int i = 0; i < texts.size(); i++) {
+                if (argMax(scores[i]) == argMax(reference[i])) {
+                    agreeing++;
+                }
+                for (int j = 0; j < scores[i].length; j++) {
+                    maxDelta = Math.max(maxDelta, Math.abs(scores[i][j] - reference[i][j]));
+                }
+            }
+            measurements.add(new Measurement(candidate.variant, medianMs, candidate.memoryBytes,
+                    texts.isEmpty() ? 1 : (float) agreeing / texts.size(), maxDelta));
+        }
+        return measurements;
+    }
+
+    /**
+     * The fastest variant agreeing closely enough with the reference, which
+     * always qualifies.
+     */
+    public SentimentVariant choose(List<Measurement> measurements) {
+        Measurement best = measurements.get(0);
+        for (Measurement measurement : measurements) {
+            if (measurement.agreement >= minAgreement && measurement.medianMs < best.medianMs) {
+                best = measurement;
+            }
+        }
+        return best.variant;
+    }
+
+    /**
+     * Return the variant chosen earlier from exactly these candidates, or null if
+     * the benchmark has to run again.
+     */
+    public static SentimentVariant restore(SharedPreferences preferences,
+                                           List<SentimentVariant> candidates) {
+        String chosen = preferences.getString(KEY_CHOSEN, null);
+        if (chosen == null
+                || !candidates.toString().equals(preferences.getString(KEY_CANDIDATES, null))) {
+            return null;
+        }
+        try {
+            SentimentVariant variant = SentimentVariant.valueOf(chosen);
+            return candidates.contains(variant) ? variant : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public static void save(SharedPreferences preferences, List<SentimentVariant> candidates,
+                            SentimentVariant chosen) {
+        preferences.edit()
+                .putString(KEY_CHOSEN, chosen.name())
+                .putString(KEY_CANDIDATES, candidates.toString())
+                .apply();
+    }
+
+    /**
+     * Classify each text once and return the median latency in milliseconds.
+     */
+    private static double run(SentimentModel model, List<String> texts, float[][] scores) {
+        SentimentTokenizer tokenizer = model.getTokenizer();
+        int[][] tokens = new int[1][SentimentTokenizer.SEQUENCE_LENGTH];
+        float[][] output = new float[1][tokenizer.getLabels().size()];
+        long[] nanos = new long[texts.size()];
+
+        // The first inference allocates the tensors, keep it out of the timings
+        tokenizer.tokenize("", tokens[0]);
+        model.getRunner().run(tokens, 1, output);
+        for (int i = 0; i < texts.size(); i++) {
+            tokenizer.tokenize(texts.get(i), tokens[0]);
+            long start = System.nanoTime();
+            model.getRunner().run(tokens, 1, output);
+            nanos[i] = System.nanoTime() - start;
+            scores[i] = output[0].clone();
+        }
+        if (nanos.length == 0) {
+            return 0;
+        }
+        Arrays.sort(nanos);
+        return nanos[nanos.length / 2] / 1e6;
+    }
+
+    private static int argMax(float[] scores) {
+        int best = 0;
+        for (int i = 1; i < scores.length; i++) {
+            if (scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,119 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lets concurrent identical requests share one computation.
+ *
+ * The first request for a key starts the work. Requests for the same key made
+ * before the work completes join it instead, and every one of them receives its
+ * result or failure on the thread that completes it. The key is forgotten once
+ * the work completes, so keeping results is left to the caches.
+ */
+public final class SingleFlight<K, V> {
+    /**
+     * Receives the outcome of the shared work.
+     */
+    public interface Callback<V> {
+        void onResult(V value);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Starts the work for a key, which must complete the callback exactly once,
+     * on any thread.
+     */
+    public interface Work<V> {
+        void start(Callback<V> done);
+    }
+
+    private final Map<K, List<Callback<V>>> inFlight = new HashMap<>();
+    private final Metrics.Counter joined;
+
+    /**
+     * @param name prefix of the Metrics counter of joined requests
+     */
+    public SingleFlight(String name) {
+        joined = Metrics.counter(name + ".joined");
+    }
+
+    /**
+     * Start the work for the key, or join the work already running for it.
+     * Returns whether the work was started by this call.
+     */
+    public boolean execute(K key, Callback<V> callback, Work<V> work) {
+        synchronized (inFlight) {
+            List<Callback<V>> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                joined.increment();
+                return false;
+            }
+            waiting = new ArrayList<>(2);
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+        }
+        Completion completion = new Completion(key);
+        try {
+            work.start(completion);
+        } catch (RuntimeException e) {
+            completion.onFailure(e);
+        }
+        return true;
+    }
+
+    /**
+     * Number of keys with work running.
+     */
+    public int size() {
+        synchronized (inFlight) {
+            return inFlight.size();
+        }
+    }
+
+    /**
+     * Hands the outcome to every request of the key. Only the first outcome counts.
+     */
+    private final class Completion implements Callback<V> {
+        private final K key;
+        private boolean done;
+
+        Completion(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public void onResult(V value) {
+            List<Callback<V>> waiting = finish();
+            if (waiting != null) {
+                for (Callback<V> callback : waiting) {
+                    callback.onResult(value);
+                }
+            }
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            List<Callback<V>> waiting = finish();
+            if (waiting != null) {
+                for (Callback<V> callback : waiting) {
+                    callback.onFailure(e);
+                }
+            }
+        }
+
+        private List<Callback<V>> finish() {
+            synchronized (inFlight) {
+                if (done) {
+                    return null;
+                }
+                done = true;
+                return inFlight.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+/**
+ * Sends an annotate request to Cloud Vision.
+ */
+public interface VisionClient {
+    /**
+     * Receives the decoded response data (nested maps and lists), or the failure.
+     */
+    interface Callback {
+        void onSuccess(Object data);
+
+        void onFailure(Exception e);
+    }
+
+    void annotate(String requestJson, Callback callback);
+}
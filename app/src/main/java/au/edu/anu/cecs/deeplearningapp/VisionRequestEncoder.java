@@ -0,0 +1,190 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the Cloud Vision request for a bitmap in a single pass.
+ *
+ * The JPEG bytes produced by Bitmap.compress are Base64-encoded as they are
+ * written, straight into a buffer that already holds the start of the JSON
+ * request. The only copy made per request is the final String handed to the
+ * callable function. Encoders are pooled, so the buffer is reused across
+ * requests once it has grown to the usual payload size.
+ */
+public class VisionRequestEncoder {
+    public static final int DEFAULT_MAX_DIMENSION = 640;
+    public static final int DEFAULT_JPEG_QUALITY = 100;
+    public static final int DEFAULT_MAX_RESULTS = 5;
+
+    private static final int INITIAL_CAPACITY = 256 * 1024;
+    private static final int POOL_SIZE = 4;
+    private static final BlockingQueue<VisionRequestEncoder> pool =
+            new ArrayBlockingQueue<>(POOL_SIZE);
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final byte[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+    private static final byte[] PREFIX = "{\"image\":{\"content\":\"".getBytes(US_ASCII);
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int length;
+    private final Base64Stream base64 = new Base64Stream();
+
+    /**
+     * Take an encoder from the pool, or create one if all of them are in use.
+     */
+    public static VisionRequestEncoder obtain() {
+        VisionRequestEncoder encoder = pool.poll();
+        return encoder == null ? new VisionRequestEncoder() : encoder;
+    }
+
+    /**
+     * Return the encoder to the pool. It must not be used afterwards.
+     */
+    public void recycle() {
+        length = 0;
+        pool.offer(this);
+    }
+
+    /**
+     * Build the landmark detection request for an already scaled bitmap.
+     */
+    public String encode(Bitmap bitmap, int jpegQuality, int maxResults) {
+        begin();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, jpegQuality, base64);
+        return end(maxResults);
+    }
+
+    /**
+     * Build the landmark detection request for an image that is already encoded.
+     */
+    public String encode(byte[] image, int offset, int count, int maxResults) {
+        begin();
+        base64.write(image, offset, count);
+        return end(maxResults);
+    }
+
+    private void begin() {
+        length = 0;
+        append(PREFIX);
+        base64.reset();
+    }
+
+    private String end(int maxResults) {
+        base64.finish();
+        append(("\"},\"features\":[{\"maxResults\":" + maxResults
+                + ",\"type\":\"LANDMARK_DETECTION\"}]}").getBytes(US_ASCII));
+        return new String(buffer, 0, length, US_ASCII);
+    }
+
+    /**
+     * Size of the last request, in bytes.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Size of the JPEG in the last request, in bytes.
+     */
+    public int imageLength() {
+        return base64.written;
+    }
+
+    private void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+
+    /**
+     * Base64-encodes everything written to it into the request buffer, without
+     * line breaks. Up to two bytes are held back until a full group of three
+     * arrives.
+     */
+    private final class Base64Stream extends OutputStream {
+        private final byte[] pending = new byte[3];
+        private int pendingCount;
+        private int written;
+
+        void reset() {
+            pendingCount = 0;
+            written = 0;
+        }
+
+        @Override
+        public void write(int b) {
+            pending[pendingCount++] = (byte) b;
+            written++;
+            if (pendingCount == 3) {
+                ensureCapacity(4);
+                encodeGroup(pending, 0);
+                pendingCount = 0;
+            }
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int count) {
+            written += count;
+            // Complete a group left over from the previous write
+            while (pendingCount > 0 && pendingCount < 3 && count > 0) {
+                pending[pendingCount++] = bytes[offset++];
+                count--;
+            }
+            if (pendingCount == 3) {
+                ensureCapacity(4);
+                encodeGroup(pending, 0);
+                pendingCount = 0;
+            }
+
+            int groups = count / 3;
+            ensureCapacity(groups * 4);
+            for (int i = 0; i < groups; i++) {
+                encodeGroup(bytes, offset);
+                offset += 3;
+            }
+            for (int i = groups * 3; i < count; i++) {
+                pending[pendingCount++] = bytes[offset++];
+            }
+        }
+
+        /**
+         * Encode the remaining bytes with padding.
+         */
+        void finish() {
+            if (pendingCount == 0) {
+                return;
+            }
+            ensureCapacity(4);
+            int b0 = pending[0] & 0xFF;
+            int b1 = pendingCount > 1 ? pending[1] & 0xFF : 0;
+            buffer[length++] = ALPHABET[b0 >>> 2];
+            buffer[length++] = ALPHABET[((b0 & 0x03) << 4) | (b1 >>> 4)];
+            buffer[length++] = pendingCount > 1 ? ALPHABET[(b1 & 0x0F) << 2] : (byte) '=';
+            buffer[length++] = '=';
+            pendingCount = 0;
+        }
+
+        private void encodeGroup(byte[] bytes, int offset) {
+            int group = ((bytes[offset] & 0xFF) << 16)
+                    | ((bytes[offset + 1] & 0xFF) << 8)
+                    | (bytes[offset + 2] & 0xFF);
+            buffer[length++] = ALPHABET[(group >>> 18) & 0x3F];
+            buffer[length++] = ALPHABET[(group >>> 12) & 0x3F];
+            buffer[length++] = ALPHABET[(group >>> 6) & 0x3F];
+            buffer[length++] = ALPHABET[group & 0x3F];
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads landmark annotations straight out of the maps and lists a callable
+ * function returns.
+ *
+ * Only the fields that are shown are looked up, boundingPoly and anything else
+ * is never touched, and reading stops after the requested number of
+ * annotations. Numbers may be any Number, as the Firebase SDK decodes integers
+ * and doubles differently from Gson.
+ */
+public final class VisionResponseParser {
+    /**
+     * One recognized landmark.
+     */
+    public static final class Landmark {
+        public final String description;
+        public final String mid;
+        public final float score;
+        // NaN when the annotation has no location, e.g. an on-device prediction
+        public final double latitude;
+        public final double longitude;
+
+        public Landmark(String description, String mid, float score,
+                        double latitude, double longitude) {
+            this.description = description;
+            this.mid = mid;
+            this.score = score;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        public boolean hasLocation() {
+            return !Double.isNaN(latitude);
+        }
+    }
+
+    private VisionResponseParser() {
+    }
+
+    /**
+     * Return at most maxResults landmarks of the first response, best first.
+     *
+     * @param data the response as an array of image responses, or a single one
+     * @throws IllegalArgumentException if the data is not a landmark response
+     */
+    public static List<Landmark> parse(Object data, int maxResults) {
+        if (data instanceof List) {
+            List<?> responses = (List<?>) data;
+            if (responses.isEmpty()) {
+                return Collections.emptyList();
+            }
+            data = responses.get(0);
+        }
+        Map<?, ?> response = asMap(data, "response");
+        Object error = response.get("error");
+        if (error != null) {
+            throw new IllegalArgumentException("Vision error: " + asMap(error, "error").get("message"));
+        }
+        Object annotations = response.get("landmarkAnnotations");
+        if (annotations == null) {
+            // Nothing recognized
+            return Collections.emptyList();
+        }
+
+        List<?> list = asList(annotations, "landmarkAnnotations");
+        int count = Math.min(maxResults, list.size());
+        List<Landmark> landmarks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            landmarks.add(landmark(asMap(list.get(i), "annotation")));
+        }
+        return landmarks;
+    }
+
+    /**
+     * Describe the landmarks in the text shown to the user.
+     */
+    public static String describe(List<Landmark> landmarks) {
+        StringBuilder result = new StringBuilder();
+        for (Landmark landmark : landmarks) {
+            result.append("Prediction ---\n")
+                    .append("Description: ").append(landmark.description).append('\n')
+                    .append("Entity ID: ").append(landmark.mid).append('\n')
+                    .append("Prediction Score: ").append(landmark.score).append('\n');
+            // Multiple locations are possible, only the first is shown
+            if (landmark.hasLocation()) {
+                result.append("Latitude: ").append(landmark.latitude).append('\n')
+                        .append("Longitude: ").append(landmark.longitude).append('\n');
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    private static Landmark landmark(Map<?, ?> annotation) {
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        Object locations = annotation.get("locations");
+        if (locations instanceof List && !((List<?>) locations).isEmpty()) {
+            Object latLng = asMap(((List<?>) locations).get(0), "location").get("latLng");
+            if (latLng != null) {
+                Map<?, ?> point = asMap(latLng, "latLng");
+                latitude = number(point.get("latitude"));
+                longitude = number(point.get("longitude"));
+            }
+        }
+        return new Landmark(string(annotation.get("description")),
+                string(annotation.get("mid")), (float) number(annotation.get("score")),
+                latitude, longitude);
+    }
+
+    private static Map<?, ?> asMap(Object value, String name) {
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("Expected an object for " + name + ": " + value);
+        }
+        return (Map<?, ?>) value;
+    }
+
+    private static List<?> asList(Object value, String name) {
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Expected an array for " + name + ": " + value);
+        }
+        return (List<?>) value;
+    }
+
+    private static String string(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    private static double number(Object value) {
+        // Vision omits fields that are zero
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
+    }
+}
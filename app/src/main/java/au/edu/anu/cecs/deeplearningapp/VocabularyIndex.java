@@ -0,0 +1,111 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.util.Arrays;
+
+/**
+ * Maps words to token ids without creating a String per lookup.
+ *
+ * An open-addressing hash table with linear probing. The words are packed into
+ * one char array and looked up straight from a range of the text, lower-casing
+ * as they are compared, so tokenizing needs neither substrings nor boxed ids.
+ */
+public final class VocabularyIndex {
+    public static final int NOT_FOUND = -1;
+
+    private final int mask;
+    // Per slot: the hash, where the word starts in chars, its length and its id
+    private final int[] hashes;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final int[] ids;
+    private char[] chars = new char[1024];
+    private int used;
+    private int size;
+
+    /**
+     * @param expectedSize number of words, the table is kept at most half full
+     */
+    public VocabularyIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2, expectedSize) * 2 - 1) << 1;
+        mask = capacity - 1;
+        hashes = new int[capacity];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+        ids = new int[capacity];
+        Arrays.fill(lengths, -1);
+    }
+
+    /**
+     * Add a word, lower-cased. A word added twice keeps its last id.
+     */
+    public void put(String word, int id) {
+        int length = word.length();
+        int hash = hash(word, 0, length);
+        int slot = find(word, 0, length, hash);
+        if (lengths[slot] >= 0) {
+            ids[slot] = id;
+            return;
+        }
+        if (size + 1 > (mask + 1) / 2) {
+            throw new IllegalStateException("More than the expected number of words");
+        }
+        if (used + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length * 2, used + length));
+        }
+        for (int i = 0; i < length; i++) {
+            chars[used + i] = Character.toLowerCase(word.charAt(i));
+        }
+        hashes[slot] = hash;
+        offsets[slot] = used;
+        lengths[slot] = length;
+        ids[slot] = id;
+        used += length;
+        size++;
+    }
+
+    /**
+     * Return the id of text[start, end) lower-cased, or NOT_FOUND.
+     */
+    public int get(CharSequence text, int start, int end) {
+        int slot = find(text, start, end, hash(text, start, end));
+        return lengths[slot] >= 0 ? ids[slot] : NOT_FOUND;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the slot holding the word, or the empty slot where it belongs.
+     */
+    private int find(CharSequence text, int start, int end, int hash) {
+        int length = end - start;
+        int slot = hash & mask;
+        while (lengths[slot] >= 0) {
+            if (hashes[slot] == hash && lengths[slot] == length
+                    && matches(offsets[slot], text, start, length)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private boolean matches(int offset, CharSequence text, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            if (chars[offset + i] != Character.toLowerCase(text.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+        }
+        // Spread the high bits, as the table only uses the low ones
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,137 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for fitting images to a byte budget, with a fake compressor
+ * whose output grows with the image area and the quality.
+ */
+public class AdaptiveImageEncoderTest {
+    /**
+     * Pretends to be an 800px image that compresses to area * quality / 200 bytes.
+     */
+    static class FakeEncoder extends AdaptiveImageEncoder {
+        final List<Integer> qualities = new ArrayList<>();
+        AdaptiveImageEncoder.Network network = AdaptiveImageEncoder.Network.UNMETERED;
+        int scaledTo = 800;
+
+        FakeEncoder() {
+            super(null);
+        }
+
+        static int size(int dimension, int quality) {
+            return dimension * dimension * quality / 200;
+        }
+
+        @Override
+        Network currentNetwork() {
+            return network;
+        }
+
+        @Override
+        int longerSide(Bitmap bitmap) {
+            return 800;
+        }
+
+        @Override
+        Bitmap scale(Bitmap bitmap, int maxDimension) {
+            scaledTo = maxDimension;
+            return bitmap;
+        }
+
+        @Override
+        void compress(Bitmap image, Bitmap.CompressFormat format, int quality,
+                      OutputStream out) {
+            qualities.add(quality);
+            try {
+                out.write(new byte[size(scaledTo, quality)]);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    @Test
+    public void keepsTheHighestQualityWhenItFits() {
+        FakeEncoder encoder = new FakeEncoder();
+        encoder.setBudget(AdaptiveImageEncoder.Network.UNMETERED,
+                new AdaptiveImageEncoder.Budget(400, 100 * 1024, 50, 90,
+                        Bitmap.CompressFormat.JPEG));
+
+        String request = encoder.encode(null, 1);
+
+        assertEquals(1, encoder.getAttempts());
+        assertEquals(400, encoder.getDimension());
+        assertEquals(90, encoder.getQuality());
+        assertEquals(FakeEncoder.size(400, 90), encoder.getImageLength());
+        assertTrue(request.startsWith("{\"image\":{\"content\":\""));
+    }
+
+    @Test
+    public void searchesForTheHighestQualityWithinTheBudget() {
+        FakeEncoder encoder = new FakeEncoder();
+        // 640px compresses to 2048 bytes per quality point, so 75 is the best fit
+        encoder.encode(null, 1);
+
+        assertEquals(640, encoder.getDimension());
+        assertEquals(75, encoder.getQuality());
+        assertEquals(FakeEncoder.size(640, 75), encoder.getImageLength());
+        assertTrue(encoder.getImageLength() <= AdaptiveImageEncoder.UNMETERED_BUDGET.maxBytes);
+        // Highest, lowest, then halving the range down to QUALITY_STEP
+        assertTrue(encoder.getAttempts() <= 6);
+        assertEquals(90, (int) encoder.qualities.get(0));
+        assertEquals(50, (int) encoder.qualities.get(1));
+    }
+
+    @Test
+    public void scalesDownWhenEvenTheLowestQualityIsTooBig() {
+        FakeEncoder encoder = new FakeEncoder();
+        encoder.network = AdaptiveImageEncoder.Network.METERED;
+        encoder.setBudget(AdaptiveImageEncoder.Network.METERED,
+                new AdaptiveImageEncoder.Budget(640, 20 * 1024, 30, 80,
+                        Bitmap.CompressFormat.WEBP));
+
+        encoder.encode(null, 1);
+
+        assertEquals(AdaptiveImageEncoder.Network.METERED, encoder.getNetwork());
+        assertEquals(360, encoder.getDimension());
+        assertTrue(encoder.getQuality() >= 30);
+        assertTrue(encoder.getImageLength() <= 20 * 1024);
+        assertEquals(FakeEncoder.size(360, encoder.getQuality()), encoder.getImageLength());
+    }
+
+    @Test
+    public void sendsTheSmallestImageWhenNothingFits() {
+        FakeEncoder encoder = new FakeEncoder();
+        encoder.setBudget(AdaptiveImageEncoder.Network.UNMETERED,
+                new AdaptiveImageEncoder.Budget(640, 1024, 30, 80, Bitmap.CompressFormat.JPEG));
+
+        encoder.encode(null, 1);
+
+        assertTrue(encoder.getDimension() >= AdaptiveImageEncoder.MIN_DIMENSION);
+        assertTrue(encoder.getDimension() * 3 / 4 < AdaptiveImageEncoder.MIN_DIMENSION);
+        assertEquals(30, encoder.getQuality());
+        assertEquals(FakeEncoder.size(encoder.getDimension(), 30), encoder.getImageLength());
+    }
+
+    @Test
+    public void fixedBudgetCompressesOnce() {
+        FakeEncoder encoder = new FakeEncoder();
+        encoder.setBudget(AdaptiveImageEncoder.Network.UNMETERED,
+                AdaptiveImageEncoder.Budget.fixed(640, 100));
+
+        encoder.encode(null, 1);
+
+        assertEquals(1, encoder.getAttempts());
+        assertEquals(100, encoder.getQuality());
+    }
+}
@@ -0,0 +1,228 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for packing images into batch calls, with a fake batch function.
+ */
+public class BatchRecognizerTest {
+    /**
+     * Answers a batch with one landmark per image, named after the image content.
+     * The first failures calls fail.
+     */
+    private static class FakeBatchClient implements VisionClient {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        volatile int failures;
+
+        @Override
+        public void annotate(String requestJson, Callback callback) {
+            if (failures > 0) {
+                failures--;
+                callback.onFailure(new IOException("unavailable"));
+                return;
+            }
+            List<Object> responses = new ArrayList<>();
+            for (JsonElement request : JsonParser.parseString(requestJson).getAsJsonObject()
+                    .getAsJsonArray("requests")) {
+                String content = request.getAsJsonObject().getAsJsonObject("image")
+                        .get("content").getAsString();
+                responses.add(((List<?>) FakeVisionClient.response(content, 0.9)).get(0));
+            }
+            batchSizes.add(responses.size());
+            callback.onSuccess(Collections.singletonMap("responses", responses));
+        }
+    }
+
+    /**
+     * Records what the recognizer reports and waits for completion.
+     */
+    private static class Recorder implements BatchRecognizer.Listener {
+        final String[] descriptions;
+        final List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch complete = new CountDownLatch(1);
+        volatile int lastDone;
+
+        Recorder(int size) {
+            descriptions = new String[size];
+        }
+
+        @Override
+        public void onResult(int index, Object response) {
+            descriptions[index] = description(response);
+        }
+
+        @Override
+        public void onFailure(int index, Exception e) {
+            failed.add(index);
+        }
+
+        @Override
+        public void onProgress(int done, int total) {
+            lastDone = done;
+        }
+
+        @Override
+        public void onComplete(int succeeded, int failed, long elapsedMs) {
+            complete.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue(complete.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeBatchClient client = new FakeBatchClient();
+    private BatchRecognizer recognizer;
+
+    @After
+    public void tearDown() {
+        recognizer.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String description(Object response) {
+        Map<String, Object> first = (Map<String, Object>) ((List<Object>) response).get(0);
+        List<Object> annotations = (List<Object>) first.get("landmarkAnnotations");
+        return (String) ((Map<String, Object>) annotations.get(0)).get("description");
+    }
+
+    private static String singleRequest(String content) {
+        return "{\"image\":{\"content\":\"" + content + "\"},\"features\":[]}";
+    }
+
+    /**
+     * Single-image requests whose image content is "image<i>" padded to the given length.
+     */
+    private static BatchRecognizer.Source source(final int size, final int contentLength) {
+        return new BatchRecognizer.Source() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public String request(int index) {
+                StringBuilder content = new StringBuilder("image" + index);
+                while (content.length() < contentLength) {
+                    content.append('A');
+                }
+                return singleRequest(content.toString());
+            }
+        };
+    }
+
+    @Test
+    public void packsUpToTheImageLimit() throws Exception {
+        recognizer = new BatchRecognizer(client, 4, 1 << 20, 2, 1, 1);
+        Recorder recorder = new Recorder(10);
+        recognizer.recognize(source(10, 0), recorder);
+        recorder.await();
+
+        assertEquals(Arrays.asList(4, 4, 2), client.batchSizes);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("image" + i, recorder.descriptions[i]);
+        }
+        assertEquals(10, recorder.lastDone);
+    }
+
+    @Test
+    public void packsUpToThePayloadLimit() throws Exception {
+        // Each request is a little over 1000 bytes, so three do not fit in 3000
+        recognizer = new BatchRecognizer(client, 16, 3000, 2, 1, 1);
+        Recorder recorder = new Recorder(5);
+        recognizer.recognize(source(5, 1000), recorder);
+        recorder.await();
+
+        assertEquals(Arrays.asList(2, 2, 1), client.batchSizes);
+        assertTrue(recorder.failed.isEmpty());
+    }
+
+    @Test
+    public void retriesFailedCalls() throws Exception {
+        client.failures = 2;
+        recognizer = new BatchRecognizer(client, 16, 1 << 20, 1, 3, 1);
+        Recorder recorder = new Recorder(3);
+        recognizer.recognize(source(3, 0), recorder);
+        recorder.await();
+
+        assertEquals(Collections.singletonList(3), client.batchSizes);
+        assertEquals("image2", recorder.descriptions[2]);
+        assertTrue(recorder.failed.isEmpty());
+    }
+
+    @Test
+    public void reportsImagesOfAFailedCall() throws Exception {
+        client.failures = 2;
+        recognizer = new BatchRecognizer(client, 2, 1 << 20, 1, 2, 1);
+        Recorder recorder = new Recorder(4);
+        recognizer.recognize(source(4, 0), recorder);
+        recorder.await();
+
+        // The first batch fails twice and gives up, the second succeeds
+        assertEquals(Arrays.asList(0, 1), recorder.failed);
+        assertEquals("image3", recorder.descriptions[3]);
+    }
+
+    @Test
+    public void packsCallsOfARecognizerSharingTheCacheAndInFlightCalls() throws Exception {
+        recognizer = new BatchRecognizer(client, 4, 1 << 20, 2, 1, 1);
+        LandmarkRecognizer single =
+                new LandmarkRecognizer(new FakeVisionClient(), new LandmarkCache(folder.getRoot()));
+        LandmarkRecognizer album = single.withClient(recognizer);
+        String[] results = new String[4];
+
+        album.recognize(0L, () -> singleRequest("first"), callback(results, 0));
+        album.recognize(-1L, () -> singleRequest("second"), callback(results, 1));
+        // The same image again joins the call in flight
+        album.recognize(0L, () -> {
+            throw new AssertionError("Request built twice");
+        }, callback(results, 2));
+        assertTrue(client.batchSizes.isEmpty());
+
+        recognizer.flush();
+        assertEquals(Collections.singletonList(2), client.batchSizes);
+        assertEquals("first", results[0]);
+        assertEquals("second", results[1]);
+        assertEquals("first", results[2]);
+
+        // Cached for single images too
+        single.recognize(0L, () -> {
+            throw new AssertionError("Request built for a cached image");
+        }, callback(results, 3));
+        assertEquals("cached:first", results[3]);
+    }
+
+    private static LandmarkRecognizer.Callback callback(final String[] results, final int index) {
+        return new LandmarkRecognizer.Callback() {
+            @Override
+            public void onResult(Object data, boolean cached) {
+                results[index] = (cached ? "cached:" : "") + description(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                fail(e.toString());
+            }
+        };
+    }
+}
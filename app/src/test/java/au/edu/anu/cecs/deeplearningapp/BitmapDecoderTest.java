@@ -0,0 +1,25 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the subsampling factor used when decoding gallery images.
+ */
+public class BitmapDecoderTest {
+    @Test
+    public void sampleSizeKeepsLongerSideAboveTarget() {
+        // A 48 MP camera image
+        assertEquals(8, BitmapDecoder.sampleSize(8000, 6000, 640));
+        assertEquals(8, BitmapDecoder.sampleSize(6000, 8000, 640));
+        assertEquals(4, BitmapDecoder.sampleSize(4000, 3000, 640));
+        assertEquals(2, BitmapDecoder.sampleSize(1280, 720, 640));
+    }
+
+    @Test
+    public void smallImagesAreNotSubsampled() {
+        assertEquals(1, BitmapDecoder.sampleSize(1279, 720, 640));
+        assertEquals(1, BitmapDecoder.sampleSize(320, 240, 640));
+    }
+}
@@ -0,0 +1,179 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for bulk scoring, with the fake model of SentimentBatcherTest
+ * scoring each text by its token count.
+ */
+public class BulkSentimentScorerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static InputStream input(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String csv(int records) {
+        StringBuilder text = new StringBuilder("id,text\n");
+        for (int i = 1; i <= records; i++) {
+            text.append(i).append(",comment ").append(i).append('\n');
+        }
+        return text.toString();
+    }
+
+    private List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void readsTheTextColumnOfCsv() throws Exception {
+        SentimentBatcher batcher = new SentimentBatcher(
+                SentimentBatcherTest.model(new SentimentBatcherTest.FakeRunner()), 4, 5, 2);
+        File output = folder.newFile("out.csv");
+        BulkSentimentScorer scorer = new BulkSentimentScorer(batcher, output,
+                new File(folder.getRoot(), "checkpoint"));
+
+        BulkSentimentScorer.Report report = scorer.score(input("id,text\n"
+                + "1,one\n"
+                + "\n"
+                + "2,\"one, two\"\n"
+                + "3,\"one\n\"\"two\"\" three\"\n"), "test", (records, rate) -> { });
+        batcher.close();
+
+        assertEquals(3, report.records);
+        assertEquals(0, report.failed);
+        // START token plus the words, scored as label "0"
+        assertEquals(Arrays.asList("line,label,score", "1,0,2.0", "2,0,3.0", "3,0,4.0"),
+                lines(output));
+    }
+
+    @Test
+    public void readsJsonLines() throws Exception {
+        SentimentBatcher batcher = new SentimentBatcher(
+                SentimentBatcherTest.model(new SentimentBatcherTest.FakeRunner()));
+        File output = folder.newFile("out.csv");
+        BulkSentimentScorer scorer = new BulkSentimentScorer(batcher, output,
+                new File(folder.getRoot(), "checkpoint"));
+
+        scorer.score(input("{\"id\": 7, \"text\": \"one two\"}\n{\"text\": \"one\"}\n"),
+                "test", (records, rate) -> { });
+        batcher.close();
+
+        assertEquals(Arrays.asList("line,label,score", "1,0,3.0", "2,0,2.0"), lines(output));
+    }
+
+    @Test
+    public void resumesFromTheCheckpoint() throws Exception {
+        final int total = 2000;
+        final String text = csv(total);
+        SentimentBatcherTest.FakeRunner runner = new SentimentBatcherTest.FakeRunner();
+        SentimentBatcher batcher = new SentimentBatcher(SentimentBatcherTest.model(runner),
+                4, 0, 2);
+        File output = folder.newFile("out.csv");
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        BulkSentimentScorer scorer = new BulkSentimentScorer(batcher, output, checkpoint, 8, 100);
+
+        // The input breaks off part way through
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        InputStream broken = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                if (pos > bytes.length / 2) {
+                    throw new IllegalStateException("Connection lost");
+                }
+                return super.read(b, off, Math.min(len, 256));
+            }
+        };
+        try {
+            scorer.score(broken, "dump.csv", (records, rate) -> { });
+            fail();
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+        assertTrue(checkpoint.exists());
+
+        BulkSentimentScorer.Report report = scorer.score(input(text), "dump.csv",
+                (records, rate) -> { });
+        batcher.close();
+
+        assertTrue(report.resumedAfter > 0);
+        assertEquals(total, report.resumedAfter + report.records);
+        assertFalse(checkpoint.exists());
+        List<String> lines = lines(output);
+        assertEquals(total + 1, lines.size());
+        for (int i = 1; i <= total; i++) {
+            assertTrue(lines.get(i), lines.get(i).startsWith(i + ",0,"));
+        }
+    }
+
+    @Test
+    public void failsWhenTheLastRecordCannotBeWritten() throws Exception {
+        SentimentBatcher batcher = new SentimentBatcher(
+                SentimentBatcherTest.model(new SentimentBatcherTest.FakeRunner()), 4, 0, 1);
+        File output = folder.newFile("out.csv");
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        BulkSentimentScorer scorer = new BulkSentimentScorer(batcher, output, checkpoint, 8, 2) {
+            @Override
+            Writer newWriter(OutputStream stream) {
+                // The disk fills up on the last record
+                return new FilterWriter(super.newWriter(stream)) {
+                    @Override
+                    public void write(String text, int offset, int length) throws IOException {
+                        if (text.equals("5")) {
+                            throw new IOException("No space left on device");
+                        }
+                        super.write(text, offset, length);
+                    }
+                };
+            }
+        };
+
+        try {
+            scorer.score(input(csv(5)), "dump.csv", (records, rate) -> { });
+            fail();
+        } catch (IOException e) {
+            assertEquals("No space left on device", e.getMessage());
+        }
+        batcher.close();
+
+        // Resuming scores the last record again
+        assertTrue(checkpoint.exists());
+        assertEquals(5, lines(output).size());
+    }
+
+    @Test
+    public void anotherSourceStartsOver() throws Exception {
+        SentimentBatcher batcher = new SentimentBatcher(
+                SentimentBatcherTest.model(new SentimentBatcherTest.FakeRunner()));
+        File output = folder.newFile("out.csv");
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        Files.write(checkpoint.toPath(), "other.csv\n5\n40\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(output.toPath(), "stale output of another file\n".getBytes(StandardCharsets.UTF_8));
+        BulkSentimentScorer scorer = new BulkSentimentScorer(batcher, output, checkpoint);
+
+        BulkSentimentScorer.Report report = scorer.score(input(csv(3)), "dump.csv",
+                (records, rate) -> { });
+        batcher.close();
+
+        assertEquals(0, report.resumedAfter);
+        assertEquals(4, lines(output).size());
+        assertEquals("line,label,score", lines(output).get(0));
+    }
+}
@@ -0,0 +1,66 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for the annotateImage callable function. Answers every request with
+ * a single landmark and records the requests it was sent. While hold is set the
+ * answers are kept back until completeHeld() is called.
+ */
+class FakeVisionClient implements VisionClient {
+    final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    volatile String landmark = "Sydney Opera House";
+    volatile Exception failure;
+    volatile boolean hold;
+    private final List<Callback> held = new ArrayList<>();
+
+    /**
+     * The response data for one landmark, shaped like the callable function's result.
+     */
+    static Object response(String description, double score) {
+        Map<String, Object> landmark = new HashMap<>();
+        landmark.put("mid", "/m/06_nm");
+        landmark.put("description", description);
+        landmark.put("score", score);
+        Map<String, Object> latLng = new HashMap<>();
+        latLng.put("latitude", -33.857);
+        latLng.put("longitude", 151.215);
+        landmark.put("locations",
+                Collections.singletonList(Collections.singletonMap("latLng", latLng)));
+        landmark.put("boundingPoly", Collections.singletonMap("vertices", new ArrayList<>()));
+        return Collections.singletonList(Collections.singletonMap("landmarkAnnotations",
+                Collections.singletonList(landmark)));
+    }
+
+    @Override
+    public void annotate(String requestJson, Callback callback) {
+        requests.add(requestJson);
+        if (hold) {
+            synchronized (held) {
+                held.add(callback);
+            }
+        } else if (failure != null) {
+            callback.onFailure(failure);
+        } else {
+            callback.onSuccess(response(landmark, 0.9));
+        }
+    }
+
+    /**
+     * Answer the requests kept back while hold was set.
+     */
+    void completeHeld() {
+        List<Callback> callbacks;
+        synchronized (held) {
+            callbacks = new ArrayList<>(held);
+            held.clear();
+        }
+        for (Callback callback : callbacks) {
+            callback.onSuccess(response(landmark, 0.9));
+        }
+    }
+}
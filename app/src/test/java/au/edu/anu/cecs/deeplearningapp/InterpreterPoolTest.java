@@ -0,0 +1,100 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the interpreter pool, using fake runners in place of TFLite.
+ */
+public class InterpreterPoolTest {
+    /**
+     * Holds on to the batch for a while and tracks how many runners are busy at once.
+     */
+    static class SlowRunner implements BatchRunner {
+        static final AtomicInteger busy = new AtomicInteger();
+        static final AtomicInteger maxBusy = new AtomicInteger();
+        boolean closed;
+
+        @Override
+        public void run(int[][] tokens, int count, float[][] scores) {
+            int now = busy.incrementAndGet();
+            maxBusy.accumulateAndGet(now, Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (int i = 0; i < count; i++) {
+                scores[i][0] = tokens[i][1];
+            }
+            busy.decrementAndGet();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void runsBatchesOnSeveralInterpretersAtOnce() throws InterruptedException {
+        SlowRunner.maxBusy.set(0);
+        List<SlowRunner> created = new ArrayList<>();
+        InterpreterPool pool = new InterpreterPool(3, () -> {
+            SlowRunner runner = new SlowRunner();
+            created.add(runner);
+            return runner;
+        });
+
+        HashMap<String, Integer> vocab = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            vocab.put("w" + i, i + 10);
+        }
+        SentimentTokenizer tokenizer =
+                new SentimentTokenizer(vocab, SentimentBatcherTest.tokenizer().getLabels());
+        SentimentBatcher batcher = new SentimentBatcher(new SentimentModel(tokenizer, pool, "test"), 2, 0,
+                pool.size());
+
+        int total = 30;
+        CountDownLatch done = new CountDownLatch(total);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        List<Float> scores = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < total; i++) {
+            batcher.classify("w" + i, (text, results) -> {
+                delivered.add(text);
+                scores.add(results.get(0));
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+
+        assertTrue(SlowRunner.maxBusy.get() > 1);
+        assertTrue(SlowRunner.maxBusy.get() <= 3);
+        for (int i = 0; i < total; i++) {
+            // Delivered in submission order, each with the scores of its own text
+            assertEquals("w" + i, delivered.get(i));
+            assertEquals(i + 10, scores.get(i), 0f);
+        }
+        for (SlowRunner runner : created) {
+            assertTrue(runner.closed);
+        }
+    }
+
+    @Test
+    public void defaultSizeLeavesACoreForTheUi() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assertEquals(Math.max(1, cores - 1), InterpreterPool.defaultSize(1));
+        assertTrue(InterpreterPool.defaultSize(cores * 2) >= 1);
+    }
+}
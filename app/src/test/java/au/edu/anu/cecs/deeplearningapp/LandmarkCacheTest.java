@@ -0,0 +1,173 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the perceptual-hash landmark cache, with a fake callable function.
+ */
+public class LandmarkCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+
+    private LandmarkCache cache(File directory, long maxBytes) {
+        return new LandmarkCache(directory, maxBytes, TimeUnit.HOURS.toMillis(1),
+                LandmarkCache.DEFAULT_MAX_DISTANCE, now::get);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String description(Object data) {
+        Map<String, Object> response = (Map<String, Object>) ((List<Object>) data).get(0);
+        List<Object> annotations = (List<Object>) response.get("landmarkAnnotations");
+        return (String) ((Map<String, Object>) annotations.get(0)).get("description");
+    }
+
+    @Test
+    public void repeatedAndNearDuplicateImagesSkipTheCall() {
+        FakeVisionClient client = new FakeVisionClient();
+        LandmarkRecognizer recognizer =
+                new LandmarkRecognizer(client, cache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES));
+        String[] results = new String[3];
+
+        long hash = 0x0F0F0F0F0F0F0F0FL;
+        recognizer.recognize(hash, () -> "request", callback(results, 0));
+        recognizer.recognize(hash, () -> "request", callback(results, 1));
+        // Two bits away, e.g. the next photo of a burst
+        recognizer.recognize(hash ^ 0x11, () -> {
+            throw new AssertionError("Request built for a cached image");
+        }, callback(results, 2));
+
+        assertEquals(1, client.requests.size());
+        assertEquals("Sydney Opera House", results[0]);
+        assertEquals("cached:Sydney Opera House", results[1]);
+        assertEquals("cached:Sydney Opera House", results[2]);
+    }
+
+    @Test
+    public void differentImageMisses() {
+        FakeVisionClient client = new FakeVisionClient();
+        LandmarkRecognizer recognizer =
+                new LandmarkRecognizer(client, cache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES));
+        String[] results = new String[2];
+
+        recognizer.recognize(0L, () -> "first", callback(results, 0));
+        client.landmark = "Eiffel Tower";
+        recognizer.recognize(-1L, () -> "second", callback(results, 1));
+
+        assertEquals(2, client.requests.size());
+        assertEquals("Eiffel Tower", results[1]);
+    }
+
+    @Test
+    public void deliversTheResultBeforeWritingTheCache() {
+        LandmarkCache cache = cache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES);
+        List<Runnable> writes = new ArrayList<>();
+        LandmarkRecognizer recognizer =
+                new LandmarkRecognizer(new FakeVisionClient(), cache, writes::add);
+        String[] results = new String[1];
+
+        recognizer.recognize(0L, () -> "request", callback(results, 0));
+        assertEquals("Sydney Opera House", results[0]);
+        assertEquals(0, cache.size());
+
+        writes.get(0).run();
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void persistsAcrossInstancesUntilExpired() {
+        File directory = folder.getRoot();
+        cache(directory, LandmarkCache.DEFAULT_MAX_BYTES)
+                .put(0xFEDCBA9876543210L, FakeVisionClient.response("Uluru", 0.8));
+
+        LandmarkCache reopened = cache(directory, LandmarkCache.DEFAULT_MAX_BYTES);
+        assertEquals("Uluru", description(reopened.get(0xFEDCBA9876543210L)));
+
+        now.addAndGet(TimeUnit.HOURS.toMillis(2));
+        assertNull(reopened.get(0xFEDCBA9876543210L));
+        assertEquals(0, cache(directory, LandmarkCache.DEFAULT_MAX_BYTES).size());
+    }
+
+    @Test
+    public void expiredClosestEntryDoesNotHideANearDuplicate() {
+        LandmarkCache cache = cache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES);
+        long hash = 0x0F0F0F0F0F0F0F0FL;
+        cache.put(hash, FakeVisionClient.response("Uluru", 0.8));
+        now.addAndGet(TimeUnit.MINUTES.toMillis(50));
+        cache.put(hash ^ 0x3, FakeVisionClient.response("Kata Tjuta", 0.8));
+
+        // Only the exact match has expired
+        now.addAndGet(TimeUnit.MINUTES.toMillis(20));
+        assertEquals("Kata Tjuta", description(cache.get(hash)));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void readsTheDirectoryOnFirstUse() {
+        File directory = new File(folder.getRoot(), "lazy");
+        LandmarkCache cache = cache(directory, LandmarkCache.DEFAULT_MAX_BYTES);
+        assertFalse(directory.exists());
+
+        assertNull(cache.get(0L));
+        assertTrue(directory.isDirectory());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedWhenOverSize() {
+        File directory = folder.getRoot();
+        LandmarkCache probe = cache(new File(directory, "probe"), LandmarkCache.DEFAULT_MAX_BYTES);
+        probe.put(1L, FakeVisionClient.response("Big Ben", 0.9));
+        long entryBytes = new File(directory, "probe").listFiles()[0].length();
+
+        // Room for two entries
+        LandmarkCache cache = cache(new File(directory, "lru"), entryBytes * 2 + entryBytes / 2);
+        cache.put(0x00L, FakeVisionClient.response("Big Ben", 0.9));
+        cache.put(0xFF00L, FakeVisionClient.response("Big Ben", 0.9));
+        assertNotNull(cache.get(0x00L));
+        cache.put(0xFF0000L, FakeVisionClient.response("Big Ben", 0.9));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(0x00L));
+        assertNull(cache.get(0xFF00L));
+        assertNotNull(cache.get(0xFF0000L));
+    }
+
+    @Test
+    public void hashOfShiftedBrightnessIsClose() {
+        int[] pixels = new int[ImageHash.WIDTH * ImageHash.HEIGHT];
+        int[] brighter = new int[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int grey = (i * 37) % 200;
+            pixels[i] = 0xFF000000 | grey << 16 | grey << 8 | grey;
+            brighter[i] = 0xFF000000 | (grey + 20) << 16 | (grey + 20) << 8 | (grey + 20);
+        }
+        assertTrue(ImageHash.distance(ImageHash.dHash(pixels), ImageHash.dHash(brighter))
+                <= LandmarkCache.DEFAULT_MAX_DISTANCE);
+    }
+
+    private static LandmarkRecognizer.Callback callback(final String[] results, final int index) {
+        return new LandmarkRecognizer.Callback() {
+            @Override
+            public void onResult(Object data, boolean cached) {
+                results[index] = (cached ? "cached:" : "") + description(data);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                fail(e.toString());
+            }
+        };
+    }
+}
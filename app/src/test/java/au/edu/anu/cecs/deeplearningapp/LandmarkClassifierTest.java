@@ -0,0 +1,41 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the tensor conversions of the on-device landmark classifier.
+ */
+public class LandmarkClassifierTest {
+    private static final int[] PIXELS = {0xFFFF8000, 0xFF0000FF};
+
+    @Test
+    public void fillsQuantizedInput() {
+        ByteBuffer input = ByteBuffer.allocate(6);
+        LandmarkClassifier.fillInput(PIXELS, input, true);
+        assertArrayEquals(new byte[]{(byte) 255, (byte) 128, 0, 0, 0, (byte) 255}, input.array());
+    }
+
+    @Test
+    public void fillsFloatInput() {
+        ByteBuffer input = ByteBuffer.allocate(24).order(ByteOrder.nativeOrder());
+        LandmarkClassifier.fillInput(PIXELS, input, false);
+        input.rewind();
+        assertEquals(1f, input.getFloat(), 1e-6);
+        assertEquals(128 / 255f, input.getFloat(), 1e-6);
+        assertEquals(0f, input.getFloat(), 1e-6);
+    }
+
+    @Test
+    public void dequantizesScores() {
+        ByteBuffer output = ByteBuffer.wrap(new byte[]{0, (byte) 200, 100});
+        float[] scores = new float[3];
+        LandmarkClassifier.readScores(output, scores, true, 1 / 256f, 0);
+        assertEquals(200 / 256f, scores[1], 1e-6);
+        assertEquals(1, LandmarkClassifier.argMax(scores));
+    }
+}
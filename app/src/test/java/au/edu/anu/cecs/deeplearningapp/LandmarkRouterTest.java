@@ -0,0 +1,81 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for choosing between the on-device classifier and the cloud,
+ * with a fake classifier and a fake callable function.
+ */
+public class LandmarkRouterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeVisionClient client = new FakeVisionClient();
+
+    private LandmarkRouter router(LandmarkRouter.Mode mode, final float localScore) {
+        LandmarkRouter router = new LandmarkRouter(
+                new LandmarkRecognizer(client, new LandmarkCache(folder.getRoot())), mode, 0.6f);
+        router.setClassifier(image -> new LandmarkClassifier.Prediction("Uluru", localScore));
+        return router;
+    }
+
+    /**
+     * Recognize and return "<route>:<description>" or "failure".
+     */
+    @SuppressWarnings("unchecked")
+    private static String recognize(LandmarkRouter router, long hash) {
+        final String[] result = new String[1];
+        router.recognize(null, hash, () -> "request", new LandmarkRouter.Callback() {
+            @Override
+            public void onResult(Object data, LandmarkRouter.Route route) {
+                Map<String, Object> response = (Map<String, Object>) ((List<Object>) data).get(0);
+                List<Object> annotations = (List<Object>) response.get("landmarkAnnotations");
+                result[0] = route + ":"
+                        + ((Map<String, Object>) annotations.get(0)).get("description");
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                result[0] = "failure";
+            }
+        });
+        return result[0];
+    }
+
+    @Test
+    public void confidentPredictionStaysOnDevice() {
+        assertEquals("DEVICE:Uluru", recognize(router(LandmarkRouter.Mode.HYBRID, 0.8f), 1));
+        assertTrue(client.requests.isEmpty());
+    }
+
+    @Test
+    public void unsurePredictionGoesToTheCloud() {
+        LandmarkRouter router = router(LandmarkRouter.Mode.HYBRID, 0.3f);
+        assertEquals("CLOUD:Sydney Opera House", recognize(router, 1));
+        assertEquals(1, client.requests.size());
+        // The cloud answer is cached and preferred over the classifier
+        assertEquals("CACHE:Sydney Opera House", recognize(router, 1));
+    }
+
+    @Test
+    public void offlineFallsBackToTheDevice() {
+        client.failure = new IOException("offline");
+        assertEquals("DEVICE:Uluru", recognize(router(LandmarkRouter.Mode.HYBRID, 0.3f), 1));
+        assertEquals("failure", recognize(router(LandmarkRouter.Mode.CLOUD, 0.3f), 2));
+    }
+
+    @Test
+    public void modesOverrideTheThreshold() {
+        assertEquals("DEVICE:Uluru", recognize(router(LandmarkRouter.Mode.LOCAL, 0.1f), 1));
+        assertEquals("CLOUD:Sydney Opera House",
+                recognize(router(LandmarkRouter.Mode.CLOUD, 0.9f), 2));
+    }
+}
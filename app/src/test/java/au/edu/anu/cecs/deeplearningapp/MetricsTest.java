@@ -0,0 +1,134 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.support.label.Category;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the counters and latency histograms, and for the
+ * metrics the sentiment engine reports through them.
+ */
+public class MetricsTest {
+    @Before
+    public void enable() {
+        Metrics.reset();
+        Metrics.setEnabled(true);
+    }
+
+    @After
+    public void disable() {
+        Metrics.setEnabled(false);
+        Metrics.reset();
+    }
+
+    @Test
+    public void bucketsCoverEveryValueInOrder() {
+        long previousHighest = -1;
+        for (int bucket = 0; bucket <= LatencyHistogram.bucketOf(Long.MAX_VALUE); bucket++) {
+            long highest = LatencyHistogram.highestInBucket(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(previousHighest + 1));
+            assertEquals(bucket, LatencyHistogram.bucketOf(highest));
+            assertTrue(highest > previousHighest);
+            previousHighest = highest;
+        }
+        assertEquals(Long.MAX_VALUE, previousHighest);
+    }
+
+    @Test
+    public void percentilesStayWithinTheBucketPrecision() {
+        LatencyHistogram histogram = Metrics.histogram("test.percentiles");
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), histogram.getMax());
+        assertEquals(TimeUnit.MICROSECONDS.toNanos(500) + 500, histogram.getMean(), 1);
+        double tolerance = 1.0 / LatencyHistogram.SUB_BUCKETS;
+        for (int percentile : new int[]{50, 90, 99}) {
+            double expected = TimeUnit.MICROSECONDS.toNanos(percentile * 10);
+            double actual = histogram.getPercentile(percentile);
+            assertTrue(percentile + ": " + actual, actual >= expected);
+            assertTrue(percentile + ": " + actual, actual <= expected * (1 + tolerance));
+        }
+        assertEquals(histogram.getMax(), histogram.getPercentile(100));
+    }
+
+    @Test
+    public void recordsNothingWhileDisabled() {
+        Metrics.Counter counter = Metrics.counter("test.disabled");
+        LatencyHistogram histogram = Metrics.histogram("test.disabled");
+        Metrics.setEnabled(false);
+
+        long start = Metrics.now();
+        counter.increment();
+        histogram.record(1000);
+        histogram.recordSince(start);
+
+        assertEquals(0, start);
+        assertEquals(0, counter.get());
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void countsConcurrentUpdates() throws InterruptedException {
+        final Metrics.Counter counter = Metrics.counter("test.concurrent");
+        final LatencyHistogram histogram = Metrics.histogram("test.concurrent");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    counter.increment();
+                    histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, counter.get());
+        assertEquals(40000, histogram.getCount());
+        assertEquals(9999, histogram.getMax());
+    }
+
+    @Test
+    public void dumpsSentimentCacheAndBatcherMetrics() throws InterruptedException {
+        SentimentCache cache = new SentimentCache();
+        cache.setModelVersion("test");
+        cache.get("great");
+        cache.put("great", Collections.<Category>emptyList(), "test");
+        cache.get("Great!");
+
+        SentimentBatcher batcher = new SentimentBatcher(
+                SentimentBatcherTest.model(new SentimentBatcherTest.FakeRunner()), 8, 10, 1);
+        int total = 10;
+        CountDownLatch done = new CountDownLatch(total);
+        for (int i = 0; i < total; i++) {
+            batcher.classify("text " + i, (text, results) -> done.countDown());
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+
+        assertEquals(1, Metrics.counter("sentiment.cache.hits").get());
+        assertEquals(1, Metrics.counter("sentiment.cache.misses").get());
+        assertEquals(total, Metrics.counter("sentiment.texts").get());
+        assertEquals(total, Metrics.histogram("sentiment.queue_wait").getCount());
+        long batches = Metrics.counter("sentiment.batches").get();
+        assertTrue(batches >= 2);
+        assertEquals(batches, Metrics.histogram("sentiment.inference").getCount());
+
+        String dump = Metrics.dump();
+        assertTrue(dump, dump.contains("sentiment.texts: " + total + "\n"));
+        assertTrue(dump, dump.contains("sentiment.queue_wait: count=" + total + ","));
+    }
+}
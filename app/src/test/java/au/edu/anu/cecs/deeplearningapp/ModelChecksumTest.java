@@ -0,0 +1,55 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for verifying downloaded model files.
+ */
+public class ModelChecksumTest {
+    private static final String ABC_SHA256 =
+            "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file(String content) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream output = new FileOutputStream(file)) {
+            output.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    @Test
+    public void acceptsTheAnnouncedHash() throws IOException {
+        File model = file("abc");
+        assertEquals(ABC_SHA256, ModelChecksum.sha256(model));
+        ModelChecksum.verify(model, ABC_SHA256.toUpperCase());
+    }
+
+    @Test
+    public void rejectsAnyOtherContent() throws IOException {
+        File truncated = file("ab");
+        try {
+            ModelChecksum.verify(truncated, ABC_SHA256);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Checksum mismatch"));
+        }
+        try {
+            ModelChecksum.verify(file("abc"), null);
+            fail();
+        } catch (IOException e) {
+            // No hash announced, nothing to trust
+        }
+    }
+}
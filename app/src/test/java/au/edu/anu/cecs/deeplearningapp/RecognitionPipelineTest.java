@@ -0,0 +1,149 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleRegistry;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the recognition pipeline's coalescing, cancellation and
+ * lifecycle handling. Every stage runs inline and the bitmaps are stand-ins.
+ */
+public class RecognitionPipelineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final FakeVisionClient client = new FakeVisionClient();
+    private final List<String> events = new ArrayList<>();
+    private LifecycleRegistry lifecycle;
+
+    @Before
+    public void setUp() {
+        lifecycle = LifecycleRegistry.createUnsafe(() -> lifecycle);
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_CREATE);
+    }
+
+    private RecognitionPipeline pipeline(int maxDistance) {
+        LandmarkRouter router = new LandmarkRouter(new LandmarkRecognizer(client,
+                new LandmarkCache(folder.getRoot(), LandmarkCache.DEFAULT_MAX_BYTES,
+                        TimeUnit.HOURS.toMillis(1), maxDistance, System::currentTimeMillis)),
+                LandmarkRouter.Mode.CLOUD, LandmarkRouter.DEFAULT_THRESHOLD);
+        RecognitionPipeline.Listener listener = new RecognitionPipeline.Listener() {
+            @Override
+            public void onImageDecoded(Bitmap bitmap) {
+                events.add("decoded");
+            }
+
+            @Override
+            public void onResult(String description, LandmarkRouter.Route route) {
+                events.add((route == LandmarkRouter.Route.CACHE ? "cached:" : "")
+                        + description.split("\n")[1]);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                events.add("failure:" + e);
+            }
+        };
+        return new RecognitionPipeline(lifecycle, null, router, 640, null, false, listener,
+                Runnable::run, Runnable::run, Runnable::run) {
+            @Override
+            Bitmap decode(Uri uri) {
+                return null;
+            }
+
+            @Override
+            Bitmap preprocess(Bitmap bitmap) {
+                return null;
+            }
+
+            @Override
+            long hash(Bitmap scaled) {
+                return 0;
+            }
+
+            @Override
+            String encode(Bitmap scaled) {
+                return "request";
+            }
+        };
+    }
+
+    @Test
+    public void repeatedTapsShareOneUpload() {
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        RecognitionPipeline pipeline = pipeline(LandmarkCache.DEFAULT_MAX_DISTANCE);
+        client.hold = true;
+
+        pipeline.select(Uri.parse("content://images/1"));
+        pipeline.recognize();
+        pipeline.recognize();
+        pipeline.recognize();
+        assertEquals(1, client.requests.size());
+
+        client.completeHeld();
+        // Once the first recognition is done the next tap is answered from the cache
+        pipeline.recognize();
+        assertEquals(1, client.requests.size());
+        assertEquals("[decoded, Description: Sydney Opera House, "
+                + "cached:Description: Sydney Opera House]", events.toString());
+    }
+
+    @Test
+    public void newImageDropsTheOldResult() {
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        // Never match the cache, so each image is uploaded
+        RecognitionPipeline pipeline = pipeline(-1);
+        client.hold = true;
+
+        pipeline.select(Uri.parse("content://images/1"));
+        pipeline.recognize();
+        pipeline.select(Uri.parse("content://images/2"));
+        client.completeHeld();
+        assertEquals("[decoded, decoded]", events.toString());
+
+        client.landmark = "Uluru";
+        pipeline.recognize();
+        client.completeHeld();
+        assertEquals(2, client.requests.size());
+        assertEquals("[decoded, decoded, Description: Uluru]", events.toString());
+    }
+
+    @Test
+    public void resultsWaitUntilStarted() {
+        RecognitionPipeline pipeline = pipeline(LandmarkCache.DEFAULT_MAX_DISTANCE);
+
+        pipeline.select(Uri.parse("content://images/1"));
+        pipeline.recognize();
+        assertEquals(1, client.requests.size());
+        assertTrue(events.isEmpty());
+
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        assertEquals("[decoded, Description: Sydney Opera House]", events.toString());
+    }
+
+    @Test
+    public void destroyStopsDelivery() {
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_START);
+        RecognitionPipeline pipeline = pipeline(LandmarkCache.DEFAULT_MAX_DISTANCE);
+        client.hold = true;
+
+        pipeline.select(Uri.parse("content://images/1"));
+        pipeline.recognize();
+        lifecycle.handleLifecycleEvent(Lifecycle.Event.ON_DESTROY);
+        client.completeHeld();
+        assertEquals("[decoded]", events.toString());
+    }
+}
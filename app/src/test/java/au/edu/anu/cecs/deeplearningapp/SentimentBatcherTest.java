@@ -0,0 +1,242 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the micro-batching sentiment engine, using a fake model.
+ */
+public class SentimentBatcherTest {
+    /**
+     * Scores each row by its token count and records the size of every batch.
+     */
+    static class FakeRunner implements BatchRunner {
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean closed;
+
+        @Override
+        public void run(int[][] tokens, int count, float[][] scores) {
+            batchSizes.add(count);
+            for (int i = 0; i < count; i++) {
+                int length = 0;
+                while (length < tokens[i].length && tokens[i][length] != 0) {
+                    length++;
+                }
+                scores[i][0] = length;
+                scores[i][1] = -length;
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    static SentimentTokenizer tokenizer() {
+        return new SentimentTokenizer(new HashMap<>(), Arrays.asList("0", "1"));
+    }
+
+    static SentimentModel model(BatchRunner runner) {
+        return new SentimentModel(tokenizer(), runner, "test");
+    }
+
+    @Test
+    public void coalescesQueuedTextsIntoBatches() throws InterruptedException {
+        FakeRunner runner = new FakeRunner();
+        SentimentBatcher batcher = new SentimentBatcher(model(runner), 8, 50, 1);
+        int total = 20;
+        CountDownLatch done = new CountDownLatch(total);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < total; i++) {
+            batcher.classify("text " + i, (text, results) -> {
+                delivered.add(text);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+        assertTrue(runner.batchSizes.size() < total);
+        for (int size : runner.batchSizes) {
+            assertTrue(size <= 8);
+        }
+        for (int i = 0; i < total; i++) {
+            assertEquals("text " + i, delivered.get(i));
+        }
+    }
+
+    @Test
+    public void deliversScoresOfItsOwnText() throws InterruptedException {
+        SentimentBatcher batcher = new SentimentBatcher(model(new FakeRunner()));
+        CountDownLatch done = new CountDownLatch(2);
+        float[] scores = new float[2];
+
+        batcher.classify("one", (text, results) -> {
+            scores[0] = results.get(0);
+            done.countDown();
+        });
+        batcher.classify("one two three", (text, results) -> {
+            scores[1] = results.get(0);
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+        // START token plus the words
+        assertEquals(2f, scores[0], 0f);
+        assertEquals(4f, scores[1], 0f);
+    }
+
+    @Test
+    public void tagsScoresWithTheModelVersion() throws InterruptedException {
+        SentimentBatcher batcher = new SentimentBatcher(
+                new SentimentModel(tokenizer(), new FakeRunner(), "v7"), 8, 0, 1);
+        CountDownLatch done = new CountDownLatch(1);
+        String[] version = new String[1];
+        batcher.classify("text", (text, results) -> {
+            version[0] = results.getModelVersion();
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+        assertEquals("v7", version[0]);
+    }
+
+    @Test
+    public void swapLetsRunningBatchFinishOnOldModel() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        FakeRunner oldRunner = new FakeRunner() {
+            @Override
+            public void run(int[][] tokens, int count, float[][] scores) {
+                running.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.run(tokens, count, scores);
+            }
+        };
+        FakeRunner newRunner = new FakeRunner();
+        SentimentBatcher batcher = new SentimentBatcher(model(oldRunner), 8, 0, 1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        batcher.classify("first", (text, results) -> done.countDown());
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        batcher.swap(model(newRunner));
+        // Still in use by the running batch
+        assertFalse(oldRunner.closed);
+
+        proceed.countDown();
+        batcher.classify("second", (text, results) -> done.countDown());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(oldRunner.closed);
+        assertEquals(1, newRunner.batchSizes.size());
+
+        batcher.close();
+        assertTrue(newRunner.closed);
+    }
+
+    @Test
+    public void failingCallbackDoesNotStopTheWorker() throws InterruptedException {
+        SentimentBatcher batcher = new SentimentBatcher(model(new FakeRunner()), 8, 50, 1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        batcher.classify("first", (text, results) -> {
+            throw new IllegalStateException("callback failed");
+        });
+        batcher.classify("second", (text, results) -> done.countDown());
+        batcher.classify("third", (text, results) -> done.countDown());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // The only worker is still running
+        CountDownLatch later = new CountDownLatch(1);
+        batcher.classify("later", (text, results) -> later.countDown());
+        assertTrue(later.await(5, TimeUnit.SECONDS));
+        batcher.close();
+    }
+
+    @Test
+    public void answersTextsAsFailedWithoutAModel() throws InterruptedException {
+        SentimentBatcher batcher = new SentimentBatcher(model(new FakeRunner()), 8, 0, 1);
+        batcher.swap(null);
+        CountDownLatch failed = new CountDownLatch(2);
+        batcher.classify("first", (text, results) -> {
+            assertNull(results);
+            failed.countDown();
+        });
+        batcher.classify("second", (text, results) -> {
+            assertNull(results);
+            failed.countDown();
+        });
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+
+        // Later batches are still delivered once a model is back
+        FakeRunner runner = new FakeRunner();
+        batcher.swap(model(runner));
+        CountDownLatch done = new CountDownLatch(1);
+        batcher.classify("third", (text, results) -> {
+            assertNotNull(results);
+            done.countDown();
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        batcher.close();
+        assertTrue(runner.closed);
+    }
+
+    @Test
+    public void turnsTextsAwayOnceThePendingQueueIsFull() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        FakeRunner runner = new FakeRunner() {
+            @Override
+            public void run(int[][] tokens, int count, float[][] scores) {
+                running.countDown();
+                try {
+                    proceed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.run(tokens, count, scores);
+            }
+        };
+        SentimentBatcher batcher = new SentimentBatcher(model(runner), 1, 0, 1, 2);
+        CountDownLatch done = new CountDownLatch(4);
+
+        assertTrue(batcher.classify("running", (text, results) -> done.countDown()));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(batcher.classify("first", (text, results) -> done.countDown()));
+        assertTrue(batcher.classify("second", (text, results) -> done.countDown()));
+        assertFalse(batcher.classify("rejected", (text, results) -> fail()));
+
+        // Waits for room instead
+        Thread producer = new Thread(() -> {
+            try {
+                batcher.classifyBlocking("waiting", (text, results) -> done.countDown());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        proceed.countDown();
+        producer.join(5000);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(4, runner.batchSizes.size());
+        batcher.close();
+    }
+}
@@ -0,0 +1,69 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+import org.tensorflow.lite.support.label.Category;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the classification result cache.
+ */
+public class SentimentCacheTest {
+    private static final List<Category> POSITIVE =
+            Collections.singletonList(new Category("1", 0.9f));
+
+    @Test
+    public void nearlyIdenticalTextsShareAnEntry() {
+        SentimentCache cache = new SentimentCache();
+        cache.setModelVersion("v1");
+        cache.put("Great movie!", POSITIVE, "v1");
+
+        assertSame(POSITIVE, cache.get("  great   MOVIE"));
+        assertNull(cache.get("great film"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        SentimentCache cache = new SentimentCache(2);
+        cache.setModelVersion("v1");
+        cache.put("a", POSITIVE, "v1");
+        cache.put("b", POSITIVE, "v1");
+        cache.get("a");
+        cache.put("c", POSITIVE, "v1");
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void newModelVersionInvalidatesEntries() {
+        SentimentCache cache = new SentimentCache();
+        cache.setModelVersion("v1");
+        cache.put("text", POSITIVE, "v1");
+        cache.setModelVersion("v1");
+        assertNotNull(cache.get("text"));
+
+        cache.setModelVersion("v2");
+        assertNull(cache.get("text"));
+    }
+
+    @Test
+    public void ignoresResultsOfAnotherModelVersion() {
+        SentimentCache cache = new SentimentCache();
+        cache.setModelVersion("v2");
+        // A batch that was still running on the previous model
+        cache.put("text", POSITIVE, "v1");
+        assertNull(cache.get("text"));
+        assertEquals(0, cache.size());
+
+        cache.put("text", POSITIVE, "v2");
+        assertSame(POSITIVE, cache.get("text"));
+    }
+}
@@ -0,0 +1,131 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+/**
+ * Local unit tests for the allocation-free sentiment path. The interpreter is
+ * replaced by a stand-in that scores the number of known words.
+ */
+public class SentimentClassifierTest {
+    private static final String[] WORDS = {"the", "movie", "was", "good", "bad", "don't"};
+
+    private static Map<String, Integer> vocab() {
+        Map<String, Integer> vocab = new HashMap<>();
+        for (int i = 0; i < WORDS.length; i++) {
+            vocab.put(WORDS[i], i + 3);
+        }
+        return vocab;
+    }
+
+    private static SentimentClassifier classifier() {
+        SentimentTokenizer tokenizer = new SentimentTokenizer(vocab(), Arrays.asList("0", "1"));
+        return new SentimentClassifier(tokenizer, null) {
+            @Override
+            void run(Object[] inputs, Map<Integer, Object> outputs) {
+                ByteBuffer input = (ByteBuffer) inputs[0];
+                int known = 0;
+                for (int i = 1; i < SentimentTokenizer.SEQUENCE_LENGTH; i++) {
+                    if (input.getInt(4 * i) > 2) {
+                        known++;
+                    }
+                }
+                float[][] output = (float[][]) outputs.get(0);
+                output[0][0] = known;
+                output[0][1] = 1;
+            }
+        };
+    }
+
+    @Test
+    public void indexMatchesRegardlessOfCase() {
+        VocabularyIndex index = new VocabularyIndex(WORDS.length);
+        for (int i = 0; i < WORDS.length; i++) {
+            index.put(WORDS[i], i);
+        }
+        String text = "So, The MOVIE wasn't Good";
+        assertEquals(0, index.get(text, 4, 7));
+        assertEquals(1, index.get(text, 8, 13));
+        assertEquals(VocabularyIndex.NOT_FOUND, index.get(text, 14, 20));
+        assertEquals(3, index.get(text, 21, 25));
+        assertEquals(VocabularyIndex.NOT_FOUND, index.get(text, 21, 24));
+        assertEquals(WORDS.length, index.size());
+    }
+
+    @Test
+    public void indexSurvivesCollisions() {
+        // "Aa" and "BB" share a String hash code
+        VocabularyIndex index = new VocabularyIndex(3);
+        index.put("aa", 1);
+        index.put("bb", 2);
+        index.put("aa", 3);
+        assertEquals(3, index.get("AA", 0, 2));
+        assertEquals(2, index.get("bB", 0, 2));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void tokenizesLikeTheStringPath() {
+        SentimentTokenizer tokenizer = new SentimentTokenizer(vocab(), Arrays.asList("0", "1"));
+        int[] ids = new int[SentimentTokenizer.SEQUENCE_LENGTH];
+        tokenizer.tokenize("  The movie was GOOD, I don't care!  ", ids);
+        assertArrayEquals(new int[]{1, 3, 4, 5, 6, 2, 8, 2, 0},
+                Arrays.copyOf(ids, 9));
+    }
+
+    @Test
+    public void fillsTheCallersScores() {
+        SentimentClassifier classifier = classifier();
+        SentimentScores scores = new SentimentScores();
+
+        classifier.classify("the movie was bad", scores);
+        assertEquals(2, scores.count());
+        assertEquals(4f, scores.get(0), 0f);
+        assertEquals(0, scores.best());
+        assertEquals("0", classifier.getLabel(scores.best()));
+
+        classifier.classify("meh", scores);
+        assertEquals(1, scores.best());
+        assertEquals(1f, scores.bestScore(), 0f);
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeAllocationCounting(threads);
+        long thread = Thread.currentThread().getId();
+        SentimentClassifier classifier = classifier();
+        SentimentScores scores = new SentimentScores();
+        StringBuilder text = new StringBuilder("The movie was good but the ending was bad");
+
+        int iterations = 100000;
+        for (int i = 0; i < iterations; i++) {
+            classifier.classify(text, scores);
+        }
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < iterations; i++) {
+            classifier.classify(text, scores);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        // The smallest object takes 16 bytes, so a single allocation per call
+        // shows up as at least that much per call. The JIT may still account a
+        // few hundred bytes while it recompiles, which this tolerates.
+        assertTrue(allocated + " bytes allocated", allocated < iterations);
+    }
+
+    private static void assumeAllocationCounting(com.sun.management.ThreadMXBean threads) {
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+}
@@ -0,0 +1,89 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for picking a sentiment model variant, with fake runners
+ * standing in for the float and quantized models.
+ */
+public class SentimentVariantSelectorTest {
+    private static final List<String> TEXTS = Arrays.asList(
+            "good", "a good movie", "bad", "the acting was bad and the plot was worse");
+
+    /**
+     * The fake model of SentimentBatcherTest, slowed down by a delay per call and
+     * optionally with its scores rounded or its labels swapped.
+     */
+    private static class VariantRunner extends SentimentBatcherTest.FakeRunner {
+        private final long delayMs;
+        private final boolean rounded;
+        private final boolean swapped;
+
+        VariantRunner(long delayMs, boolean rounded, boolean swapped) {
+            this.delayMs = delayMs;
+            this.rounded = rounded;
+            this.swapped = swapped;
+        }
+
+        @Override
+        public void run(int[][] tokens, int count, float[][] scores) {
+            super.run(tokens, count, scores);
+            for (int i = 0; i < count; i++) {
+                // Make the best label depend on the text
+                scores[i][1] = 5 - scores[i][0];
+                if (rounded) {
+                    scores[i][0] += 0.01f;
+                }
+                if (swapped) {
+                    float score = scores[i][0];
+                    scores[i][0] = scores[i][1];
+                    scores[i][1] = score;
+                }
+            }
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static SentimentVariantSelector.Candidate candidate(SentimentVariant variant,
+                                                                VariantRunner runner) {
+        return new SentimentVariantSelector.Candidate(variant,
+                SentimentBatcherTest.model(runner), 1024);
+    }
+
+    @Test
+    public void picksTheFastestVariantThatAgrees() {
+        SentimentVariantSelector selector = new SentimentVariantSelector();
+        List<SentimentVariantSelector.Measurement> measurements = selector.measure(Arrays.asList(
+                candidate(SentimentVariant.FLOAT32, new VariantRunner(5, false, false)),
+                candidate(SentimentVariant.FLOAT16, new VariantRunner(0, true, false)),
+                candidate(SentimentVariant.INT8, new VariantRunner(0, false, true))), TEXTS);
+
+        assertEquals(1f, measurements.get(0).agreement, 0f);
+        assertEquals(0f, measurements.get(0).maxScoreDelta, 0f);
+        assertEquals(1f, measurements.get(1).agreement, 0f);
+        assertEquals(0.01f, measurements.get(1).maxScoreDelta, 1e-6f);
+        assertEquals(0f, measurements.get(2).agreement, 0f);
+        assertTrue(measurements.get(1).medianMs < measurements.get(0).medianMs);
+        assertEquals(SentimentVariant.FLOAT16, selector.choose(measurements));
+    }
+
+    @Test
+    public void keepsTheFloatModelWhenNoVariantAgrees() {
+        SentimentVariantSelector selector = new SentimentVariantSelector();
+        List<SentimentVariantSelector.Measurement> measurements = selector.measure(Arrays.asList(
+                candidate(SentimentVariant.FLOAT32, new VariantRunner(5, false, false)),
+                candidate(SentimentVariant.DYNAMIC_INT8, new VariantRunner(0, false, true))),
+                TEXTS);
+
+        assertEquals(SentimentVariant.FLOAT32, selector.choose(measurements));
+    }
+}
@@ -0,0 +1,122 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for sharing in-flight work between identical requests, on
+ * its own and in front of a fake callable function.
+ */
+public class SingleFlightTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Records every outcome as "result:<value>" or "failure:<message>".
+     */
+    static class Recorder implements SingleFlight.Callback<String> {
+        final List<String> outcomes = new ArrayList<>();
+
+        @Override
+        public void onResult(String value) {
+            outcomes.add("result:" + value);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            outcomes.add("failure:" + e.getMessage());
+        }
+    }
+
+    @Test
+    public void identicalRequestsShareOneRun() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test");
+        List<SingleFlight.Callback<String>> started = new ArrayList<>();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Recorder other = new Recorder();
+
+        assertTrue(flight.execute("a", first, started::add));
+        assertFalse(flight.execute("a", second, started::add));
+        assertTrue(flight.execute("b", other, started::add));
+        assertEquals(2, started.size());
+        assertEquals(2, flight.size());
+
+        started.get(0).onResult("A");
+        // Only the first outcome counts
+        started.get(0).onFailure(new Exception("late"));
+        assertEquals(1, flight.size());
+        assertEquals("[result:A]", first.outcomes.toString());
+        assertEquals("[result:A]", second.outcomes.toString());
+        assertTrue(other.outcomes.isEmpty());
+
+        // Finished work is not joined
+        Recorder third = new Recorder();
+        assertTrue(flight.execute("a", third, started::add));
+        assertEquals(3, started.size());
+    }
+
+    @Test
+    public void failuresReachEveryRequest() {
+        SingleFlight<String, String> flight = new SingleFlight<>("test");
+        List<SingleFlight.Callback<String>> started = new ArrayList<>();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        flight.execute("a", first, started::add);
+        flight.execute("a", second, started::add);
+
+        started.get(0).onFailure(new Exception("offline"));
+
+        assertEquals("[failure:offline]", first.outcomes.toString());
+        assertEquals("[failure:offline]", second.outcomes.toString());
+        assertEquals(0, flight.size());
+
+        Recorder thrown = new Recorder();
+        flight.execute("b", thrown, done -> {
+            throw new IllegalStateException("broken");
+        });
+        assertEquals("[failure:broken]", thrown.outcomes.toString());
+        assertEquals(0, flight.size());
+    }
+
+    @Test
+    public void sameImageInFlightIsUploadedOnce() {
+        FakeVisionClient client = new FakeVisionClient();
+        client.hold = true;
+        LandmarkRecognizer recognizer =
+                new LandmarkRecognizer(client, new LandmarkCache(folder.getRoot()));
+        final List<String> results = new ArrayList<>();
+        final int[] requestsBuilt = new int[1];
+        LandmarkRecognizer.Callback callback = new LandmarkRecognizer.Callback() {
+            @Override
+            public void onResult(Object data, boolean cached) {
+                results.add(VisionResponseParser.describe(VisionResponseParser.parse(data, 1)));
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                results.add("failure");
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            recognizer.call(42, () -> {
+                requestsBuilt[0]++;
+                return "request";
+            }, callback);
+        }
+        recognizer.call(7, () -> "other", callback);
+        assertEquals(2, client.requests.size());
+        assertEquals(1, requestsBuilt[0]);
+
+        client.completeHeld();
+        assertEquals(4, results.size());
+        assertEquals(results.get(0), results.get(3));
+    }
+}
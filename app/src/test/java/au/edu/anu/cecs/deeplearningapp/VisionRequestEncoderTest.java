@@ -0,0 +1,51 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the streaming Vision request encoder.
+ */
+public class VisionRequestEncoderTest {
+    @Test
+    public void encodesValidRequestForEveryPaddingLength() {
+        VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+        Random random = new Random(7);
+        for (int size = 0; size < 64; size++) {
+            byte[] image = new byte[size];
+            random.nextBytes(image);
+
+            String request = encoder.encode(image, 0, size, 5);
+            JsonObject json = JsonParser.parseString(request).getAsJsonObject();
+
+            String content = json.getAsJsonObject("image").get("content").getAsString();
+            assertEquals(Base64.getEncoder().encodeToString(image), content);
+            assertEquals(5, json.getAsJsonArray("features").get(0).getAsJsonObject()
+                    .get("maxResults").getAsInt());
+            assertEquals(request.length(), encoder.length());
+            assertEquals(size, encoder.imageLength());
+        }
+        encoder.recycle();
+    }
+
+    @Test
+    public void growsBeyondInitialBufferAndReusesIt() {
+        VisionRequestEncoder encoder = VisionRequestEncoder.obtain();
+        byte[] image = new byte[1024 * 1024 + 1];
+        new Random(3).nextBytes(image);
+
+        String first = encoder.encode(image, 1, image.length - 1, 5);
+        String second = encoder.encode(image, 1, image.length - 1, 5);
+        assertEquals(first, second);
+        encoder.recycle();
+
+        assertSame(encoder, VisionRequestEncoder.obtain());
+    }
+}
@@ -0,0 +1,80 @@
+package au.edu.anu.cecs.deeplearningapp;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for reading landmark annotations from callable function results.
+ */
+public class VisionResponseParserTest {
+    /**
+     * A response with the given number of landmarks, in descending score order.
+     */
+    private static Object response(int count) {
+        List<Object> annotations = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> landmark = new HashMap<>();
+            landmark.put("description", "Landmark " + i);
+            landmark.put("mid", "/m/" + i);
+            landmark.put("score", 0.9 - i * 0.1);
+            annotations.add(landmark);
+        }
+        return Collections.singletonList(
+                Collections.singletonMap("landmarkAnnotations", annotations));
+    }
+
+    @Test
+    public void describesTheTopLandmark() {
+        List<VisionResponseParser.Landmark> landmarks =
+                VisionResponseParser.parse(FakeVisionClient.response("Sydney Opera House", 0.9), 1);
+        assertEquals("Prediction ---\n"
+                + "Description: Sydney Opera House\n"
+                + "Entity ID: /m/06_nm\n"
+                + "Prediction Score: 0.9\n"
+                + "Latitude: -33.857\n"
+                + "Longitude: 151.215\n"
+                + "\n", VisionResponseParser.describe(landmarks));
+    }
+
+    @Test
+    public void stopsAfterTopK() {
+        List<VisionResponseParser.Landmark> landmarks = VisionResponseParser.parse(response(10), 3);
+        assertEquals(3, landmarks.size());
+        assertEquals("Landmark 2", landmarks.get(2).description);
+        assertFalse(landmarks.get(0).hasLocation());
+    }
+
+    @Test
+    public void readsGsonDecodedNumbers() {
+        // Cached responses come back from Gson with every number as a Double
+        Gson gson = new Gson();
+        Object cached = gson.fromJson(gson.toJson(FakeVisionClient.response("Uluru", 1)), Object.class);
+        VisionResponseParser.Landmark landmark = VisionResponseParser.parse(cached, 5).get(0);
+        assertEquals("Uluru", landmark.description);
+        assertEquals(1f, landmark.score, 0);
+        assertEquals(-33.857, landmark.latitude, 1e-9);
+    }
+
+    @Test
+    public void emptyResponseHasNoLandmarks() {
+        assertTrue(VisionResponseParser.parse(
+                Collections.singletonList(Collections.emptyMap()), 5).isEmpty());
+        assertEquals("", VisionResponseParser.describe(
+                VisionResponseParser.parse(response(0), 5)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reportsVisionErrors() {
+        VisionResponseParser.parse(Collections.singletonMap("error",
+                Collections.singletonMap("message", "Bad image data")), 5);
+    }
+}